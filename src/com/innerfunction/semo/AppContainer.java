@@ -1,5 +1,6 @@
 package com.innerfunction.semo;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URISyntaxException;
@@ -13,12 +14,18 @@ import android.content.res.Resources;
 import android.util.DisplayMetrics;
 import android.util.Log;
 
+import com.innerfunction.uri.AnRResource;
 import com.innerfunction.uri.CompoundURI;
+import com.innerfunction.uri.FileResource;
+import com.innerfunction.uri.IFAssetManager;
 import com.innerfunction.uri.Resource;
 import com.innerfunction.uri.SchemeHandler;
 import com.innerfunction.uri.StandardURIResolver;
 import com.innerfunction.util.I18nMap;
+import com.innerfunction.util.JSONInterner;
 import com.innerfunction.util.Locals;
+import com.innerfunction.util.Maps;
+import com.innerfunction.util.Paths;
 
 /**
  * A container providing default app functionality.
@@ -31,6 +38,8 @@ public class AppContainer extends Container {
     
     /** Flag indicating whether to force-reset all local settings at app startup. */
     static final boolean ForceResetDefaultSettings = false;
+    /** The maximum number of threads used to prefetch configuration URI references. */
+    static final int PrefetchThreads = 4;
     /** A singleton instance of this class. */
     static AppContainer Instance;
 
@@ -80,8 +89,31 @@ public class AppContainer extends Container {
      *                  instance; or a CompoundURI, or a String URI, referencing the configuration.
      * @throws URISyntaxException If the configuration reference is an invalid URI.
      */
-    @SuppressWarnings("unchecked")
     public void loadConfiguration(Object configSource) throws URISyntaxException {
+        configure( resolveConfiguration( configSource ) );
+    }
+    
+    /**
+     * Reload the app container's configuration.
+     * Only those named objects whose configuration has changed, and the objects depending on them,
+     * are rebuilt; see Container.reconfigure(). Use this method to apply configuration updates, e.g.
+     * after downloading new content, without restarting the app's services.
+     * @param configSource    An object describing the container's configuration. See loadConfiguration().
+     * @throws URISyntaxException If the configuration reference is an invalid URI.
+     */
+    public void reloadConfiguration(Object configSource) throws URISyntaxException {
+        reconfigure( resolveConfiguration( configSource ) );
+    }
+    
+    /**
+     * Resolve a configuration source to a configuration.
+     * @param configSource    An object describing the container's configuration. May be a Configuration
+     *                  instance; or a CompoundURI, or a String URI, referencing the configuration; or a
+     *                  Map of configuration data.
+     * @throws URISyntaxException If the configuration reference is an invalid URI.
+     */
+    @SuppressWarnings("unchecked")
+    private Configuration resolveConfiguration(Object configSource) throws URISyntaxException {
         Configuration configuration = null;
         if( configSource instanceof Configuration ) {
             configuration = (Configuration)configSource;
@@ -98,7 +130,16 @@ public class AppContainer extends Container {
             if( uri != null ) {
                 Log.i( Tag, String.format("Loading app container configuration from %s", uri ));
                 Resource resource = resolver.dereference( uri );
-                configuration = new Configuration( resource, androidContext );
+                configuration = loadConfigurationSnapshot( resource );
+                if( configuration == null ) {
+                    configuration = new Configuration( resource, androidContext );
+                }
+                // If the "deduplicateData" property is true then share string instances across the loaded
+                // configuration, to reduce its resident size.
+                if( configuration.getValueAsBoolean("deduplicateData", false ) ) {
+                    JSONInterner interner = configuration.deduplicateData( true );
+                    Log.i( Tag, String.format("Deduplicated configuration data: %s", interner ));
+                }
             }
             else {
                 try {
@@ -110,19 +151,92 @@ public class AppContainer extends Container {
                 }
             }
         }
-        configure( configuration );
+        return configuration;
+    }
+    
+    /**
+     * Load a configuration from a precompiled snapshot, if available.
+     * The snapshot is read from an asset with the same name as the configuration asset, but with a .snapshot
+     * file extension; see ConfigurationSnapshot. Snapshots are only used if the hash of each source file the
+     * snapshot was compiled from matches the file's current contents. The data of any additional source
+     * files is added to the configuration's prefetch cache.
+     * @param resource  The configuration resource.
+     * @return A configuration using the snapshot data; or null if a valid snapshot isn't available.
+     */
+    private Configuration loadConfigurationSnapshot(Resource resource) {
+        IFAssetManager assetManager = resolver.getAssetManager();
+        if( !(resource instanceof AnRResource.Asset) || assetManager == null ) {
+            return null;
+        }
+        String snapshotName = Paths.stripext( ((AnRResource.Asset)resource).getName() )+".snapshot";
+        if( !assetManager.assetExists( snapshotName ) ) {
+            return null;
+        }
+        try {
+            ConfigurationSnapshot snapshot = ConfigurationSnapshot.read( assetManager.mapAsset( snapshotName ) );
+            String rootURI = snapshot.getRootURI();
+            Map<Resource,Object> sources = new HashMap<Resource,Object>();
+            for( Map.Entry<String,Long> entry : snapshot.getSourceHashes().entrySet() ) {
+                String uri = entry.getKey();
+                Resource source = uri.equals( rootURI ) ? resource : resolver.dereference( uri );
+                byte[] data = source instanceof FileResource ? ((FileResource)source).asData() : null;
+                if( data == null || ConfigurationSnapshot.hash( data ) != entry.getValue() ) {
+                    Log.i( Tag, String.format("Configuration snapshot %s is out of date, ignoring", snapshotName ));
+                    return null;
+                }
+                if( source != resource ) {
+                    sources.put( source, snapshot.getDocument( uri ) );
+                }
+            }
+            Configuration configuration = new Configuration( snapshot.getDocument( rootURI ), resource, androidContext );
+            for( Resource source : sources.keySet() ) {
+                configuration.addPrefetchedData( source, sources.get( source ) );
+            }
+            Log.i( Tag, String.format("Loaded configuration snapshot %s", snapshotName ));
+            return configuration;
+        }
+        catch(IOException e) {
+            Log.w( Tag, String.format("Reading configuration snapshot %s", snapshotName ), e );
+        }
+        return null;
     }
     
     /**
      * Configure this container.
      */
-    @SuppressWarnings("unchecked")
     @Override
     public void configure(Configuration configuration) {
+        configureAppContainer( configuration );
+        // Perform default container configuration.
+        super.configure( configuration );
+    }
+    
+    /**
+     * Reconfigure this container.
+     * The container's globals, type mappings, schemes and settings are reset from the new configuration
+     * before its named objects are reconfigured.
+     */
+    @Override
+    public void reconfigure(Configuration configuration) {
+        configureAppContainer( configuration );
+        super.reconfigure( configuration );
+    }
+    
+    /** Configure the app container's built-in properties and named objects. */
+    @SuppressWarnings("unchecked")
+    private void configureAppContainer(Configuration configuration) {
         
         // Setup template context.
         globals = makeDefaultGlobalModelValues( configuration );
-        configuration.setTemplateContext( globals );
+        // The template context precomputes the dotted keys of the platform and locale values, so that
+        // template references like {platform.display} are resolved with a single lookup.
+        configuration.setTemplateContext( Maps.withPathKeys( globals, "platform", "locale") );
+        
+        // Prefetch URI references with the schemes listed in the "prefetch" property, if any.
+        Object prefetchSchemes = configuration.getValue("prefetch");
+        if( prefetchSchemes instanceof List ) {
+            configuration.prefetchURIReferences( (List<String>)prefetchSchemes, PrefetchThreads );
+        }
 
         // Set object type mappings.
         setTypes( configuration.getValueAsConfiguration("types") );
@@ -157,17 +271,14 @@ public class AppContainer extends Container {
             locals.setValues( settings, ForceResetDefaultSettings );
         }
 
-        named.put("resolver", resolver );
-        named.put("androidContext", androidContext );
-        named.put("globals", globals );
-        named.put("locals", locals );
-        named.put("container", this );
+        putNamed("resolver", resolver, null );
+        putNamed("androidContext", androidContext, null );
+        putNamed("globals", globals, null );
+        putNamed("locals", locals, null );
+        putNamed("container", this, null );
         
         // Android system class configurations
         androidClassConfigs = configuration.getValueAsConfigurationMap("and:classes");
-        
-        // Perform default container configuration.
-        super.configure( configuration );
     }
     
     /**
@@ -245,8 +356,7 @@ public class AppContainer extends Container {
     }
     
     @Override
-    protected Object newInstanceForClassName(String className) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-        Class<?> clss = Class.forName( className );
+    protected Object newInstanceForClass(Class<?> clss) throws InstantiationException, IllegalAccessException {
         // First test for a class constructor accepting an android context arg.
         try {
             Constructor<?> cons = clss.getConstructor( Context.class ); 
@@ -1,24 +1,36 @@
 package com.innerfunction.semo;
 
+import java.io.File;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
+import android.util.Log;
 
 import com.innerfunction.uri.CompoundURI;
+import com.innerfunction.uri.FileResource;
 import com.innerfunction.uri.Resource;
 import com.innerfunction.util.JSONData;
+import com.innerfunction.util.JSONInterner;
 import com.innerfunction.util.Maps;
-import com.innerfunction.util.StringTemplate;
+import com.innerfunction.util.NumericList;
+import com.innerfunction.util.PersistentMap;
 import com.innerfunction.util.TypeConversions;
 
 public class Configuration extends JSONData {
@@ -27,8 +39,18 @@ public class Configuration extends JSONData {
     
     public static final Configuration EmptyConfiguration = new Configuration();
     
+    /** The maximum depth of nested values resolved when fingerprinting a configuration. */
+    static final int MaxFingerprintDepth = 32;
+    /**
+     * An internal representation used by the primitive accessors. Values are resolved as for the
+     * "default" representation, except that Resource values are returned unconverted.
+     */
+    static final String RawRepresentation = "semo:raw";
+    
     /** The configuration data. */
     private Map<String,Object> data;
+    /** The configuration's meta values, i.e. its semo: and and:class values. May be null. See pruneKeys(). */
+    private Map<String,Object> meta;
     /** The root configuration. Used to evaluate # value references. */
     private Configuration root = this;
     /** The resource the configuration data was read from. */
@@ -41,6 +63,22 @@ public class Configuration extends JSONData {
     private TypeConversions conversions;
     /** Android resources. */
     private Resources r;
+    /** An optional cache of resolved values. See setCacheValues(). */
+    private ValueCache valueCache;
+    /** A cache of normalized base configurations, keyed by resource URI and template context. See normalize(). */
+    private Map<NormalizationKey,Configuration> normalizedBases;
+    /** An optional cache of prefetched URI references. See prefetchURIReferences(). */
+    private PrefetchCache prefetchCache;
+    /** An optional string pool used to deduplicate loaded configuration data. See deduplicateData(). */
+    private JSONInterner interner;
+    /** A cache of resolved # path references. Only used on root configurations. */
+    private ValueCache pathReferences;
+    /** The state of the # path references being resolved by each thread. Used to detect reference cycles. */
+    private ThreadLocal<PathResolution> pathResolution;
+    /** Flag indicating that the configuration is frozen. See freeze(). */
+    private boolean frozen;
+    /** A memoized frozen copy of this configuration. */
+    private Configuration frozenCopy;
 
     private Configuration() {}
     
@@ -60,24 +98,32 @@ public class Configuration extends JSONData {
         this.resource = parent.resource;
         this.root = parent.root;
         this.templateContext = parent.templateContext;
+        this.prefetchCache = parent.prefetchCache;
+        this.interner = parent.interner;
         this.androidContext = androidContext;
+        this.valueCache = parent.newValueCache();
+        this.frozen = parent.frozen;
         initialize();
     }
     
     private Configuration(Configuration config, Configuration parent) {
-        data = new HashMap<String,Object>();
-        data.putAll( config.data );
-        data.putAll( parent.data );
+        // The merged data and template context share structure with the originals, so only the
+        // parent's entries need to be added.
+        data = config.getPersistentData().plusAll( parent.data );
+        meta = mergeMeta( config.meta, parent.meta );
         resource = parent.resource;
         root = parent.root;
-        templateContext = new HashMap<String,Object>();
-        templateContext.putAll( config.templateContext );
-        templateContext.putAll( parent.templateContext );
+        androidContext = parent.androidContext;
+        templateContext = TemplateScope.merge( config.templateContext, parent.templateContext );
+        prefetchCache = parent.prefetchCache != null ? parent.prefetchCache : config.prefetchCache;
+        interner = parent.interner != null ? parent.interner : config.interner;
+        valueCache = config.valueCache != null ? config.newValueCache() : parent.newValueCache();
+        frozen = config.frozen || parent.frozen;
         initialize();
     }
     
     public Configuration(Resource resource, Context context) {
-        this( resource.asJSONData(), resource, context );
+        this( resource.asLazyJSONData(), resource, context );
     }
     
     @SuppressWarnings("unchecked")
@@ -93,7 +139,7 @@ public class Configuration extends JSONData {
     
     @SuppressWarnings("unchecked")
     public Configuration(Resource resource, Configuration parent) {
-        Object data = resource.asJSONData();
+        Object data = parent.asJSONData( resource );
         if( data instanceof Map ) {
             this.data = (Map<String,Object>)data;
         }
@@ -113,40 +159,196 @@ public class Configuration extends JSONData {
             this.root = this;
         }
         this.templateContext = parent.templateContext;
+        this.prefetchCache = parent.prefetchCache;
+        this.interner = parent.interner;
         this.androidContext = parent.androidContext;
+        this.valueCache = parent.newValueCache();
+        this.frozen = parent.frozen;
         initialize();
     }
     
     private void initialize() {
         this.conversions = TypeConversions.instanceForContext( androidContext );
         this.r = androidContext.getResources();
+        if( this.data == null ) {
+            this.data = PersistentMap.empty();
+        }
         // Search the configuration data for any parameter values, and move any found to a separate map.
-        Map<String,Object> params = new HashMap<String,Object>();
-        Map<String,Object> _data = new HashMap<String,Object>();
+        // Also check for any platform or meta keys; see pruneKeys().
+        Map<String,Object> params = null;
+        PersistentMap<String,Object> _data = null;
+        boolean hasPrefixedKeys = false;
         for(String key : this.data.keySet() ) {
             if( key.startsWith("$") ) {
+                if( params == null ) {
+                    params = new HashMap<String,Object>();
+                    _data = getPersistentData();
+                }
                 params.put( key, this.data.get( key ) );
+                _data = _data.minus( key );
             }
-            else {
-                _data.put( key,  this.data.get( key ) );
+            else if( !hasPrefixedKeys && key.indexOf(':') > 0 ) {
+                hasPrefixedKeys = isPrefixedKey( key );
             }
         }
-        // Initialize/modify the context with parameter values, if any.
-        if( params.size() > 0 ) {
-            if( this.templateContext != null ) {
-                this.templateContext = new HashMap<String,Object>( this.templateContext );
-                this.templateContext.putAll( (Map<String,Object>)params );
-            }
-            else {
-                this.templateContext = params;
-            }
+        // Extend the inherited context with a scope containing the parameter values, if any.
+        if( params != null ) {
+            this.templateContext = TemplateScope.extend( this.templateContext, params );
             this.data = _data;
         }
         else if( this.templateContext == null ) {
             this.templateContext = new HashMap<String,Object>();
         }
+        if( hasPrefixedKeys ) {
+            pruneKeys();
+        }
+        if( frozen ) {
+            initializeFrozen();
+        }
+    }
+    
+    /** Test whether a top-level data key has a platform or meta prefix. */
+    private static boolean isPrefixedKey(String key) {
+        return key.startsWith("and:") || key.startsWith("semo:") || key.startsWith("ios:");
     }
     
+    /** Test whether a value name refers to a meta value. */
+    private static boolean isMetaName(String name) {
+        return name.startsWith("semo:") || (name.startsWith("and:class") && (name.length() == 9 || name.charAt( 9 ) == '.'));
+    }
+    
+    /**
+     * Remove platform specific and meta keys from the configuration's top-level data.
+     * Keys for other platforms (i.e. with an ios: prefix) are removed; and: prefixed keys are renamed to
+     * their bare name, replacing any value with the bare name; and semo: keys and the and:class key are
+     * moved to the configuration's meta values. This is done once, when the configuration is created, so
+     * that getValueNames() only returns the properties which apply on Android. Meta values can still be
+     * read by name, e.g. getValueAsString("semo:type"); and and: prefixed names are read as their bare name.
+     */
+    private void pruneKeys() {
+        PersistentMap<String,Object> _data = getPersistentData();
+        Map<String,Object> _meta = null;
+        for( Map.Entry<String,Object> entry : getPersistentData().entrySet() ) {
+            String key = entry.getKey();
+            if( isMetaName( key ) ) {
+                if( _meta == null ) {
+                    _meta = new HashMap<String,Object>();
+                }
+                _meta.put( key, entry.getValue() );
+                _data = _data.minus( key );
+            }
+            else if( key.startsWith("ios:") ) {
+                _data = _data.minus( key );
+            }
+            else if( key.startsWith("and:") ) {
+                _data = _data.minus( key ).plus( key.substring( 4 ), entry.getValue() );
+            }
+        }
+        this.data = _data;
+        if( _meta != null ) {
+            this.meta = mergeMeta( this.meta, _meta );
+        }
+    }
+    
+    /** Merge two sets of meta values. Values in the second set take precedence. */
+    private static Map<String,Object> mergeMeta(Map<String,Object> meta0, Map<String,Object> meta1) {
+        if( meta0 == null ) {
+            return meta1;
+        }
+        if( meta1 == null ) {
+            return meta0;
+        }
+        Map<String,Object> result = new HashMap<String,Object>( meta0 );
+        result.putAll( meta1 );
+        return result;
+    }
+    
+    /**
+     * Initialize a frozen configuration.
+     * Caches which would otherwise be created lazily are created up front, using thread-safe implementations.
+     * (Configuration data is never modified in place - modify() replaces the data map - so the data itself
+     * doesn't need to be copied.)
+     */
+    private void initializeFrozen() {
+        if( root == this ) {
+            normalizedBases = new ConcurrentHashMap<NormalizationKey,Configuration>();
+            pathReferences = new ValueCache();
+            pathResolution = newPathResolution();
+        }
+    }
+    
+    /**
+     * Return a frozen copy of this configuration.
+     * A frozen configuration is immutable: its data and template context can't be modified, and any method
+     * which would modify it throws an UnsupportedOperationException. Configurations derived from a frozen
+     * configuration - e.g. by getValueAsConfiguration(), mergeConfiguration() or normalize() - are also
+     * frozen. If this configuration isn't a root configuration then its root is frozen too.
+     * Frozen configurations can resolve values on several threads at the same time: their caches are
+     * thread-safe, and # path reference cycles are detected separately on each thread. Values which
+     * dereference URIs rely on the thread-safety of the configuration's URI resolver.
+     * A frozen configuration must be safely published to other threads, e.g. by passing it through a
+     * final or volatile field, a concurrent collection, an ExecutorService or a synchronized block. Its
+     * template context, and any mutable maps or lists in its data, mustn't be modified once it is frozen.
+     * Freezing copies the configuration's fields, and converts its data to a persistent map if it isn't one
+     * already (the data's values aren't copied); the frozen copy is reused until this configuration is next
+     * modified.
+     * @return A frozen copy of this configuration; or this configuration, if it is already frozen.
+     */
+    public Configuration freeze() {
+        if( frozen ) {
+            return this;
+        }
+        if( frozenCopy == null ) {
+            Configuration result = new Configuration();
+            // Convert the data now, so that merges with the frozen copy don't need to convert it again.
+            result.data = getPersistentData();
+            result.meta = meta;
+            result.resource = resource;
+            result.root = root == this ? result : root.freeze();
+            result.templateContext = templateContext;
+            result.androidContext = androidContext;
+            result.conversions = conversions;
+            result.r = r;
+            result.valueCache = newValueCache();
+            result.prefetchCache = prefetchCache;
+            result.interner = interner;
+            result.frozen = true;
+            result.initializeFrozen();
+            frozenCopy = result;
+        }
+        return frozenCopy;
+    }
+    
+    /** Test whether this configuration is frozen. See freeze(). */
+    public boolean isFrozen() {
+        return frozen;
+    }
+    
+    /** Throw an exception if this configuration is frozen. */
+    private void checkNotFrozen() {
+        if( frozen ) {
+            throw new UnsupportedOperationException("Frozen configuration can't be modified");
+        }
+    }
+    
+    /**
+     * Get the configuration data as a persistent map.
+     * The data is converted on first use, so that later merges and modifications can share its structure.
+     * The converted data of a frozen configuration isn't stored, because a frozen configuration may be
+     * read on several threads at the same time; its converted copy is returned instead.
+     */
+    private PersistentMap<String,Object> getPersistentData() {
+        PersistentMap<String,Object> result = PersistentMap.from( this.data );
+        if( !frozen ) {
+            this.data = result;
+        }
+        return result;
+    }
+    
+    /**
+     * Get the configuration data.
+     * Note that the returned map may be an immutable persistent map.
+     */
     public Map<String,Object> getData() {
         return this.data;
     }
@@ -155,87 +357,509 @@ public class Configuration extends JSONData {
         return this.resource;
     }
     
+    public Map<String,Object> getTemplateContext() {
+        return this.templateContext;
+    }
+    
+    /** Get the root configuration, used to evaluate # value references. */
+    Configuration getRoot() {
+        return this.root;
+    }
+    
+    /**
+     * Dereference a URI against this configuration's base resource.
+     * Returns the prefetched resource, if the URI has been prefetched.
+     */
+    Resource dereference(CompoundURI uri) {
+        long start = ConfigurationStats.start();
+        Resource result = null;
+        if( prefetchCache != null ) {
+            result = prefetchCache.getResource( uri );
+        }
+        if( result == null ) {
+            result = resource.dereference( uri );
+        }
+        recordResourceStamp( result );
+        if( start != ConfigurationStats.NotRecording ) {
+            ConfigurationStats.record( ConfigurationStats.URIDereference, start, uri.toString(), null );
+        }
+        return result;
+    }
+    
+    /** Dereference a URI string against this configuration's base resource. */
+    Resource dereference(String uri) {
+        if( prefetchCache == null ) {
+            long start = ConfigurationStats.start();
+            Resource result = resource.dereference( uri );
+            recordResourceStamp( result );
+            ConfigurationStats.record( ConfigurationStats.URIDereference, start, uri, null );
+            return result;
+        }
+        try {
+            return dereference( new CompoundURI( uri ) );
+        }
+        catch(URISyntaxException e) {
+            Log.e( LogTag, String.format("Parsing '%s'", uri ), e );
+        }
+        return null;
+    }
+    
+    /**
+     * Read a resource's JSON data. Returns the prefetched data, if the resource has been prefetched.
+     * The data is lazily parsed, and is deduplicated if deduplication is enabled.
+     */
+    private Object asJSONData(Resource resource) {
+        if( prefetchCache != null ) {
+            Object result = prefetchCache.getJSONData( resource );
+            if( result != null ) {
+                return result;
+            }
+        }
+        Object result = resource.asLazyJSONData();
+        return interner != null ? interner.deduplicate( result ) : result;
+    }
+    
+    /**
+     * Deduplicate the configuration data.
+     * Replaces all equal strings - keys and values - in the configuration data with a single shared
+     * instance, and optionally replaces small JSON objects with compact, read-only maps. Configuration
+     * data subsequently loaded from resources by this configuration, or by any configuration derived
+     * from it, is deduplicated against the same string pool.
+     * @param compactMaps   If true then small JSON objects are replaced with compact maps.
+     * @return The interner used to deduplicate the data. Its getBytesSaved() method returns an estimate
+     * of the memory saved so far.
+     */
+    @SuppressWarnings("unchecked")
+    public JSONInterner deduplicateData(boolean compactMaps) {
+        checkNotFrozen();
+        if( interner == null ) {
+            interner = new JSONInterner( compactMaps );
+        }
+        this.data = (Map<String,Object>)interner.deduplicate( this.data );
+        clearCaches();
+        return interner;
+    }
+    
+    /**
+     * Add a resource's JSON data to the prefetch cache, e.g. data read from a configuration snapshot.
+     * References to the resource from this configuration, or from any configuration derived from it, will
+     * then use the cached data.
+     */
+    void addPrefetchedData(Resource resource, Object data) {
+        checkNotFrozen();
+        if( prefetchCache == null ) {
+            prefetchCache = new PrefetchCache();
+        }
+        prefetchCache.put( resource, data );
+    }
+    
+    /**
+     * Prefetch the URI references in this configuration.
+     * Performs a pass over the configuration's data, and dereferences any @ URI references found (including
+     * references produced by @ prefixed templates) concurrently using a bounded thread pool. The resources,
+     * and their JSON data, are then cached for use when the references are resolved by this configuration
+     * or any configuration derived from it. Blocks until all references have been dereferenced.
+     * Only absolute URIs without parameters are prefetched. The configuration's template context should
+     * be set before this method is called.
+     * @param schemes       The URI schemes to prefetch, e.g. "app" and "cache". URIs with other schemes
+     *                      (e.g. "named") are left to be dereferenced when used.
+     * @param maxThreads    The maximum number of threads to use.
+     */
+    public void prefetchURIReferences(Collection<String> schemes, int maxThreads) {
+        checkNotFrozen();
+        Set<CompoundURI> uris = new LinkedHashSet<CompoundURI>();
+        findURIReferences( data, schemes, uris );
+        if( uris.size() > 0 ) {
+            if( prefetchCache == null ) {
+                prefetchCache = new PrefetchCache();
+            }
+            prefetchCache.prefetch( uris, resource, maxThreads, interner );
+        }
+    }
+    
+    /** Find the URI references with the specified schemes in a JSON value. */
+    @SuppressWarnings("rawtypes")
+    private void findURIReferences(Object value, Collection<String> schemes, Set<CompoundURI> uris) {
+        if( value instanceof String ) {
+            CompoundURI uri = ConfigurationValue.findURIReference( (String)value, this );
+            if( uri != null && schemes.contains( uri.getScheme() ) ) {
+                uris.add( uri );
+            }
+        }
+        else if( value instanceof Map ) {
+            for( Object item : ((Map)value).values() ) {
+                findURIReferences( item, schemes, uris );
+            }
+        }
+        else if( value instanceof List ) {
+            for( Object item : (List)value ) {
+                findURIReferences( item, schemes, uris );
+            }
+        }
+    }
+
+    /**
+     * Calculate a fingerprint of the configuration's effective values.
+     * The fingerprint is a copy of the configuration's data with templates and context references evaluated,
+     * and with # path references replaced by the fingerprint of the referenced value. @ URI references
+     * aren't dereferenced, and are represented by their URI; references to named objects are added to the
+     * dependencies. Named object instances are represented by a "@named:<name>" token, other objects by a
+     * token which is only equal to the token for the same instance. Changes to the files referenced by a
+     * configuration aren't reflected in its fingerprint; see recordResourceStamps(). Two configurations
+     * with equal fingerprints will configure equivalent objects. See Container.reconfigure().
+     * @param namedObjects  A map of named object instances onto their names. Should be an identity map.
+     * @param dependencies  Returns the names of the named objects referenced by the configuration.
+     */
+    @SuppressWarnings("unchecked")
+    Object getFingerprint(Map<Object,String> namedObjects, Set<String> dependencies) {
+        Map<String,Object> fingerprint = (Map<String,Object>)fingerprintValue( data, namedObjects, dependencies, 0 );
+        if( meta != null ) {
+            fingerprint.putAll( (Map<String,Object>)fingerprintValue( meta, namedObjects, dependencies, 0 ) );
+        }
+        return fingerprint;
+    }
+
+    /** Calculate the fingerprint of a raw configuration value. */
+    @SuppressWarnings("rawtypes")
+    private Object fingerprintValue(Object value, Map<Object,String> namedObjects, Set<String> dependencies, int depth) {
+        if( depth > MaxFingerprintDepth ) {
+            // Most likely a reference cycle; compare the unresolved value.
+            return value;
+        }
+        if( value instanceof String ) {
+            return fingerprintString( (String)value, namedObjects, dependencies, depth );
+        }
+        if( value instanceof Map ) {
+            Map<String,Object> result = new HashMap<String,Object>();
+            for( Object entry : ((Map)value).entrySet() ) {
+                Object item = ((Map.Entry)entry).getValue();
+                result.put( ((Map.Entry)entry).getKey().toString(), fingerprintValue( item, namedObjects, dependencies, depth + 1 ) );
+            }
+            return result;
+        }
+        if( value instanceof List ) {
+            List<Object> result = new ArrayList<Object>();
+            for( Object item : (List)value ) {
+                result.add( fingerprintValue( item, namedObjects, dependencies, depth + 1 ) );
+            }
+            return result;
+        }
+        if( value instanceof Configuration ) {
+            Configuration config = (Configuration)value;
+            return config.fingerprintValue( config.data, namedObjects, dependencies, depth + 1 );
+        }
+        if( value instanceof Resource ) {
+            Resource rsc = (Resource)value;
+            Object item = rsc.getItem();
+            String name = item != null ? namedObjects.get( item ) : null;
+            if( name != null ) {
+                dependencies.add( name );
+                return "@named:"+name;
+            }
+            return "@"+rsc.getURI();
+        }
+        if( value == null || value instanceof Number || value instanceof Boolean ) {
+            return value;
+        }
+        String name = namedObjects.get( value );
+        if( name != null ) {
+            dependencies.add( name );
+            return "@named:"+name;
+        }
+        // Other objects can't be compared by value, so are only equivalent if they are the same instance.
+        return new ObjectIdentity( value );
+    }
+
+    /**
+     * Calculate the fingerprint of a configuration string value.
+     * Evaluates the value as ConfigurationValue does, except that URIs aren't dereferenced.
+     */
+    private Object fingerprintString(String svalue, Map<Object,String> namedObjects, Set<String> dependencies, int depth) {
+        if( ConfigurationValue.isLiteral( svalue ) ) {
+            return svalue;
+        }
+        ConfigurationValue cvalue = ConfigurationValue.compile( svalue );
+        if( cvalue instanceof ConfigurationValue.Template ) {
+            // Template results are evaluated by prefix only; see ConfigurationValue.resolveUncompiled().
+            svalue = ((ConfigurationValue.Template)cvalue).render( this );
+            if( svalue.length() > 0 && svalue.charAt( 0 ) == '`' ) {
+                return svalue.substring( 1 );
+            }
+            if( svalue.length() == 0 || (svalue.charAt( 0 ) != '@' && svalue.charAt( 0 ) != '#') ) {
+                return svalue;
+            }
+        }
+        else if( cvalue instanceof ConfigurationValue.ContextReference ) {
+            Object value = getTemplateContext().get( svalue );
+            if( value instanceof String && ((String)value).startsWith("$") ) {
+                // Context values aren't evaluated as further context references.
+                return value;
+            }
+            return fingerprintValue( value, namedObjects, dependencies, depth + 1 );
+        }
+        if( svalue.charAt( 0 ) == '@' ) {
+            addURIDependencies( svalue.substring( 1 ), dependencies );
+            return svalue;
+        }
+        if( svalue.charAt( 0 ) == '#' ) {
+            Configuration root = getRoot();
+            Object value = root.getUnresolvedValue( svalue.substring( 1 ) );
+            if( value == null ) {
+                return svalue;
+            }
+            return root.fingerprintValue( value, namedObjects, dependencies, depth + 1 );
+        }
+        // An escaped literal value.
+        return cvalue.resolve( this, "default");
+    }
+
+    /** Add the names of any named objects referenced by a URI, or by its parameters, to a set of dependencies. */
+    private static void addURIDependencies(String uri, Set<String> dependencies) {
+        try {
+            addURIDependencies( new CompoundURI( uri ), dependencies );
+        }
+        catch(URISyntaxException e) {
+            // Unparseable URIs are compared as strings.
+        }
+    }
+
+    private static void addURIDependencies(CompoundURI uri, Set<String> dependencies) {
+        if("named".equals( uri.getScheme() ) ) {
+            dependencies.add( uri.getName() );
+        }
+        for( CompoundURI param : uri.getParameters().values() ) {
+            addURIDependencies( param, dependencies );
+        }
+    }
+
+    /** The per-thread set of resource stamps being recorded; see recordResourceStamps(). */
+    private static final ThreadLocal<Map<String,String>> ResourceStamps = new ThreadLocal<Map<String,String>>();
+
+    /**
+     * Record the files dereferenced by configurations on the current thread.
+     * Each file resource dereferenced by a configuration is added to the stamps map, keyed by file path and
+     * with a stamp of the file's modification time and size; see getResourceStamp(). Used to detect changes
+     * to the files an object was configured from, which aren't reflected in configuration fingerprints.
+     * @param stamps A map to record stamps in; or null to stop recording.
+     * @return The map stamps were previously being recorded in, or null; should be restored once done.
+     */
+    static Map<String,String> recordResourceStamps(Map<String,String> stamps) {
+        Map<String,String> previous = ResourceStamps.get();
+        ResourceStamps.set( stamps );
+        return previous;
+    }
+
+    /** Get a stamp of a file's current modification time and size. */
+    static String getResourceStamp(File file) {
+        return file.lastModified()+":"+file.length();
+    }
+
+    /** Record the stamp of a dereferenced resource, if stamps are being recorded and it is a file resource. */
+    private static void recordResourceStamp(Resource resource) {
+        Map<String,String> stamps = ResourceStamps.get();
+        if( stamps != null && resource instanceof FileResource ) {
+            File file = ((FileResource)resource).asFile();
+            if( file != null && !stamps.containsKey( file.getPath() ) ) {
+                stamps.put( file.getPath(), getResourceStamp( file ) );
+            }
+        }
+    }
+
+    /** A fingerprint token which is only equal to the token of the same object instance. */
+    private static class ObjectIdentity {
+        private final Object object;
+        ObjectIdentity(Object object) {
+            this.object = object;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ObjectIdentity && ((ObjectIdentity)obj).object == object;
+        }
+        @Override
+        public int hashCode() {
+            return System.identityHashCode( object );
+        }
+    }
+
+    /**
+     * Resolve a # path reference against this configuration.
+     * Should only be called on a root configuration. Each distinct reference is resolved once per
+     * representation and then cached, until the configuration's data or template context is modified.
+     * Unresolved references aren't cached, as they may resolve once e.g. the named objects they refer
+     * to are built.
+     * @return The resolved value; null if the reference can't be resolved; or PathReferenceCycle if the
+     * reference is part of a reference cycle.
+     */
+    Object resolvePathReference(String path, String repr) {
+        if( pathReferences == null ) {
+            pathReferences = new ValueCache();
+        }
+        if( pathResolution == null ) {
+            pathResolution = newPathResolution();
+        }
+        ValueCache pathReferences = this.pathReferences;
+        Object value = pathReferences.get( path, repr );
+        if( value != null ) {
+            return value;
+        }
+        PathResolution resolution = pathResolution.get();
+        if( !resolution.pending.add( path ) ) {
+            StringBuilder cycle = new StringBuilder();
+            for( String pending : resolution.pending ) {
+                cycle.append('#').append( pending ).append(" -> ");
+            }
+            cycle.append('#').append( path );
+            Log.e( LogTag, String.format("Path reference cycle: %s", cycle ));
+            resolution.cycle = true;
+            return PathReferenceCycle;
+        }
+        try {
+            value = getValueAs( path, repr );
+        }
+        finally {
+            resolution.pending.remove( path );
+        }
+        boolean cycle = resolution.cycle;
+        if( resolution.pending.isEmpty() ) {
+            resolution.cycle = false;
+        }
+        if( cycle ) {
+            // Values resolved while a cycle was being unwound may contain unresolved references, so aren't
+            // cached; a reference which resolved to nothing is itself part of the cycle.
+            return value == null ? PathReferenceCycle : value;
+        }
+        if( value != null ) {
+            pathReferences.put( path, repr, value );
+        }
+        return value;
+    }
+    
+    /** A marker returned by resolvePathReference() for references which are part of a reference cycle. */
+    static final Object PathReferenceCycle = new Object();
+    
+    /** The state of the # path references being resolved by a thread. */
+    private static class PathResolution {
+        /** The path references currently being resolved, in resolution order. */
+        Set<String> pending = new LinkedHashSet<String>();
+        /** Flag indicating that a reference cycle was detected while resolving the pending references. */
+        boolean cycle;
+    }
+    
+    private static ThreadLocal<PathResolution> newPathResolution() {
+        return new ThreadLocal<PathResolution>() {
+            @Override
+            protected PathResolution initialValue() {
+                return new PathResolution();
+            }
+        };
+    }
+    
     public void setTemplateContext(Map<String,Object> context) {
+        checkNotFrozen();
         this.templateContext = context;
+        clearCaches();
+    }
+    
+    /**
+     * Enable or disable caching of resolved values.
+     * When enabled, the result of each getValueAs() call is cached by name and representation, so
+     * that subsequent requests for the same value don't need to re-resolve the value's path, render
+     * its template, dereference any URI or perform any type conversion. The setting is inherited
+     * by configurations derived from this configuration. Note that because values are only resolved
+     * once, dereferenced values (e.g. @named: references) reflect the state of their URI when first
+     * requested; and that cached configuration and resource values are shared between callers.
+     * The cache is cleared whenever the configuration's data or template context is modified.
+     */
+    public void setCacheValues(boolean cacheValues) {
+        checkNotFrozen();
+        this.valueCache = cacheValues ? new ValueCache() : null;
+    }
+    
+    /** Test whether resolved values are being cached. */
+    public boolean isCachingValues() {
+        return valueCache != null;
     }
     
-    public Object getValueAs(String name, final String repr) {
-        Object value = resolveJSONReference( name, data, new PropertyHandler() {
+    /** Get the number of value cache hits since caching was enabled. */
+    public int getValueCacheHits() {
+        return valueCache != null ? valueCache.getHits() : 0;
+    }
+    
+    /** Get the number of value cache misses since caching was enabled. */
+    public int getValueCacheMisses() {
+        return valueCache != null ? valueCache.getMisses() : 0;
+    }
+    
+    /** Return a new value cache for a configuration derived from this configuration, if caching is enabled. */
+    private ValueCache newValueCache() {
+        return valueCache != null ? new ValueCache() : null;
+    }
+    
+    /** Discard any cached values. */
+    private void clearValueCache() {
+        if( valueCache != null ) {
+            valueCache.clear();
+        }
+    }
+    
+    /** Discard any cached values, normalized base configurations and resolved path references. */
+    private void clearCaches() {
+        clearValueCache();
+        normalizedBases = null;
+        pathReferences = null;
+        frozenCopy = null;
+    }
+    
+    public Object getValueAs(String name, String repr) {
+        long start = ConfigurationStats.start();
+        Object value;
+        if( valueCache == null ) {
+            value = resolveValueAs( name, repr );
+        }
+        else {
+            value = valueCache.get( name, repr );
+            if( value == null ) {
+                value = resolveValueAs( name, repr );
+                valueCache.put( name, repr, value );
+            }
+            else if( value == ValueCache.NullValue ) {
+                value = null;
+            }
+        }
+        ConfigurationStats.record( ConfigurationStats.ValueResolution, start, name, repr );
+        return value;
+    }
+    
+    /** Resolve a named value and convert it to the requested representation. */
+    private Object resolveValueAs(String name, final String repr) {
+        Map<String,Object> source = data;
+        if( isMetaName( name ) ) {
+            source = meta;
+        }
+        else if( name.startsWith("and:") ) {
+            name = name.substring( 4 );
+        }
+        Object value = resolveJSONReference( name, source, new PropertyHandler() {
             /**
              * Resolve a named property against an object.
              * Handles the conversion of intermediate Resource values, before delegating to the default
              * implementation.
              */
             @Override
-            public Object resolve(String name, Object object) {
+            public Object resolve(String name, int index, Object object) {
                 if( object instanceof Resource ) {
-                    object = ((Resource)object).asJSONData();
+                    object = asJSONData( (Resource)object );
                 }
-                return super.resolve( name, object );
+                return super.resolve( name, index, object );
             }
             /**
              * Modify intermediate and final configuration properties as they are resolved along the property path.
+             * String values are resolved as compiled configuration values; see ConfigurationValue.
              */
             @Override
             public Object modify(String name, Object value) {
                 if( value instanceof String ) {
-                    // Treat all string values as potential text templates, unless prefixed with `
-                    String svalue = (String)value;
-                    if( svalue.length() > 0 ) {
-                        
-                        char prefix = svalue.charAt( 0 );
-                        
-                        // First, attempt resolving any context references. If these in turn resolve to a
-                        // $ or # prefixed value, then they will be resolved in the following code.
-                        if( prefix == '$' ) {
-                            value = templateContext.get( svalue );
-                            if( value instanceof String ) {
-                                svalue = (String)value;
-                                if( svalue.length() > 0 ) {
-                                    prefix = svalue.charAt( 0 );
-                                }
-                                else return value;
-                            }
-                            else return value;
-                        }
-                        
-                        if( prefix != '`' ) {
-                            svalue = StringTemplate.render( svalue, templateContext );
-                            if( svalue.length() > 0 ) {
-                                prefix = svalue.charAt( 0 );
-                            }
-                            else {
-                                prefix = 0x00;
-                            }
-                        }
-                        
-                        // Any string values starting with a '@' are potentially internal URI references.
-                        // Normalize to URI references with a default representation qualifier.
-                        // If a dispatcher is also set on this configuration object then attempt to resolve
-                        // the URI and return its value instead.
-                        if( prefix == '@' ) {
-                            String uri = svalue.substring( 1 );
-                            value = resource.dereference( uri );
-                        }
-                        // Any string values starting with a '#' are potential path references to other
-                        // properties in the same configuration. Attempt to resolve them against the configuration
-                        // root; if they don't resolve then return the original value.
-                        else if( prefix == '#' ) {
-                            value = root.getValueAs( svalue.substring( 1 ), repr );
-                            if( value == null ) {
-                                value = svalue;
-                            }
-                        }
-                        else if( prefix == '`' ) {
-                            value = svalue.substring( 1 );
-                        }
-                        else if( svalue != null ) {
-                            value = svalue;
-                        }
-                    }
-                    else {
-                        value = svalue;
-                    }
+                    value = ConfigurationValue.resolve( (String)value, Configuration.this, repr );
                 }
                 return value;
             }
@@ -250,6 +874,8 @@ public class Configuration extends JSONData {
         // * A String can be converted to a URL and is valid JSON data;
         // * A Number can be converted to a String and is valid JSON data;
         // * Anything else is only valid JSON data.
+        // The 'default' representation returns the value unchanged, so requires no type conversion; the
+        // internal raw representation also leaves Resource values unconverted.
         if("resource".equals( repr ) ) {
             if( !(value instanceof Resource || value == null) && androidContext != null ) {
                 CompoundURI uri = resource.getURI().copyOfWithFragment( name );
@@ -257,30 +883,22 @@ public class Configuration extends JSONData {
             }
         }
         else if("configuration".equals( repr ) ) {
-            if( !(value instanceof Configuration) ) {
-                // If value isn't already a configuration, but is a dictionary then construct a new config using
-                // the values in that dictionary...
-                if( value instanceof Map && androidContext != null ) {
-                    CompoundURI uri = resource.getURI().copyOfWithFragment( name );
-                    Resource r = new Resource( androidContext, value, uri, resource );
-                    value = new Configuration( r, this );
-                }
-                // Else if value is a resource, then construct a new config using the resource...
-                else if( value instanceof Resource ) {
-                    value = new Configuration( (Resource)value, this );
-                }
-                // Else the value can't be resolved to a resource, so return null.
-                else {
-                    value = null;
-                }
-            }
+            value = asConfiguration( value, name );
         }
-        else if( value instanceof Resource ) {
+        else if( value instanceof Resource && !RawRepresentation.equals( repr ) ) {
+            long start = ConfigurationStats.start();
             value = ((Resource)value).getRepresentation( repr );
+            ConfigurationStats.record( ConfigurationStats.TypeConversion, start, "Resource", repr );
         }
-        else if(!"json".equals( repr ) ) {
+        else if(!"json".equals( repr ) && !"default".equals( repr ) && !RawRepresentation.equals( repr ) ) {
             if( conversions != null ) {
+                long start = ConfigurationStats.start();
+                Object original = value;
                 value = conversions.asRepresentation( value, repr );
+                if( start != ConfigurationStats.NotRecording ) {
+                    String type = original == null ? "null" : original.getClass().getSimpleName();
+                    ConfigurationStats.record( ConfigurationStats.TypeConversion, start, type, repr );
+                }
             }
             else {
                 value = null;
@@ -289,8 +907,59 @@ public class Configuration extends JSONData {
         return value;
     }
     
+    /**
+     * Convert a resolved value to a configuration.
+     * @param value The resolved value.
+     * @param name  The value's name, relative to this configuration.
+     */
+    private Configuration asConfiguration(Object value, String name) {
+        if( value instanceof Configuration ) {
+            return (Configuration)value;
+        }
+        // If value isn't already a configuration, but is a dictionary then construct a new config using
+        // the values in that dictionary...
+        if( value instanceof Map && androidContext != null ) {
+            CompoundURI uri = resource.getURI().copyOfWithFragment( name );
+            Resource r = new Resource( androidContext, value, uri, resource );
+            return new Configuration( r, this );
+        }
+        // Else if value is a resource, then construct a new config using the resource...
+        if( value instanceof Resource ) {
+            return new Configuration( (Resource)value, this );
+        }
+        // Else the value can't be resolved to a resource, so return null.
+        return null;
+    }
+    
+    /**
+     * Resolve an item of a list or map value as a configuration.
+     * @param item  The raw item value, as read from its containing list or map.
+     * @param name  The name of the list or map value.
+     * @param key   The item's key within the list or map.
+     */
+    private Configuration resolveItemAsConfiguration(Object item, String name, Object key) {
+        if( item instanceof String ) {
+            item = ConfigurationValue.resolve( (String)item, this, "configuration");
+        }
+        if( item == null || item instanceof Configuration ) {
+            return (Configuration)item;
+        }
+        return asConfiguration( item, name+"."+key );
+    }
+    
     public boolean hasValue(String name) {
-        return resolveJSONReference( name, this.data ) != null;
+        return getUnresolvedValue( name ) != null;
+    }
+    
+    /** Read a named value from the configuration data, without resolving it. */
+    private Object getUnresolvedValue(String name) {
+        if( isMetaName( name ) ) {
+            return resolveJSONReference( name, this.meta );
+        }
+        if( name.startsWith("and:") ) {
+            name = name.substring( 4 );
+        }
+        return resolveJSONReference( name, this.data );
     }
     
     public String getValueAsString(String name) {
@@ -366,6 +1035,98 @@ public class Configuration extends JSONData {
         return conversions.asColor( value );
     }
     
+    /**
+     * Test whether a value can be read as a number, e.g. using getInt().
+     * Literal values are tested without being resolved.
+     */
+    public boolean hasNumber(String name) {
+        Object value = getUnresolvedValue( name );
+        if( value == null || value instanceof Number ) {
+            return value != null;
+        }
+        return asNumber( getValueAs( name, RawRepresentation ) ) != null;
+    }
+    
+    /**
+     * Test whether a value can be read as a boolean, e.g. using getBoolean().
+     * Literal values are tested without being resolved.
+     */
+    public boolean hasBoolean(String name) {
+        Object value = getUnresolvedValue( name );
+        if( value == null || value instanceof Boolean || value instanceof Number ) {
+            return value != null;
+        }
+        value = getValueAs( name, RawRepresentation );
+        if( value instanceof Resource ) {
+            value = ((Resource)value).getRepresentation("boolean");
+        }
+        return value instanceof Boolean || value instanceof Number;
+    }
+    
+    /**
+     * Get a value as a primitive int.
+     * The primitive accessors resolve the value once and convert it directly, without representation
+     * name dispatch or boxing of the result. Resource values are converted using their getRepresentation()
+     * method.
+     * @return The value's int value; or the default value if the value can't be converted to a number.
+     */
+    public int getInt(String name, int defaultValue) {
+        Number value = asNumber( getValueAs( name, RawRepresentation ) );
+        return value == null ? defaultValue : value.intValue();
+    }
+    
+    /** Get a value as a primitive long. See getInt(). */
+    public long getLong(String name, long defaultValue) {
+        Number value = asNumber( getValueAs( name, RawRepresentation ) );
+        return value == null ? defaultValue : value.longValue();
+    }
+    
+    /** Get a value as a primitive double. See getInt(). */
+    public double getDouble(String name, double defaultValue) {
+        Number value = asNumber( getValueAs( name, RawRepresentation ) );
+        return value == null ? defaultValue : value.doubleValue();
+    }
+    
+    /**
+     * Get a value as a primitive boolean.
+     * Any non-zero number evaluates to true. See getInt().
+     * @return The value's boolean value; or the default value if the value can't be converted to a boolean.
+     */
+    public boolean getBoolean(String name, boolean defaultValue) {
+        Object value = getValueAs( name, RawRepresentation );
+        if( value instanceof Resource ) {
+            value = ((Resource)value).getRepresentation("boolean");
+        }
+        if( value instanceof Boolean ) {
+            return (Boolean)value;
+        }
+        if( value instanceof Number ) {
+            return ((Number)value).intValue() != 0;
+        }
+        return defaultValue;
+    }
+    
+    /** Convert a raw resolved value to a number; returns null if the value can't be converted. */
+    private static Number asNumber(Object value) {
+        if( value instanceof Number ) {
+            return (Number)value;
+        }
+        if( value instanceof Resource ) {
+            Object number = ((Resource)value).getRepresentation("number");
+            return number instanceof Number ? (Number)number : null;
+        }
+        return null;
+    }
+    
+    /**
+     * Get a value as a color.
+     * @return The color value; or the default value if the value isn't defined.
+     */
+    public int getColor(String name, int defaultValue) {
+        Object value = getValueAs( name, "default");
+        return value == null ? defaultValue : conversions.asColor( value );
+    }
+    
     public Resource getValueAsResource(String name) {
         return (Resource)getValueAs( name, "resource");
     }
@@ -405,38 +1166,152 @@ public class Configuration extends JSONData {
         return result == null ? defaultValue : result;
     }
     
-    @SuppressLint("DefaultLocale")
+    /**
+     * Get a list of numbers as a numeric list.
+     * Numeric lists give access to their items as primitive values through getLong() and getDouble();
+     * numeric arrays in loaded JSON data are already stored as numeric lists, so are returned without
+     * being copied.
+     * @return A numeric list; or null if the named value isn't a list, or if not all of its items are numbers.
+     */
+    public NumericList getValueAsNumericList(String name) {
+        Object value = getValue( name );
+        if( !(value instanceof List) ) {
+            value = getValueAs( name, "json");
+        }
+        return value instanceof List ? NumericList.asNumericList( (List<?>)value ) : null;
+    }
+    
+    /**
+     * Get a list value as a list of configurations.
+     * The list value is resolved once, and the returned list is a read-only view of it; each item's
+     * configuration is only created when the item is first accessed.
+     * @return A list of configurations. The list will be empty if the named value isn't a list.
+     */
     public List<Configuration> getValueAsConfigurationList(String name) {
-        List<Configuration> result = new ArrayList<Configuration>();
-        Object _value = getValue( name );
-        if( !(_value instanceof List) ) {
-            _value = getValueAs( name, "json");
+        Object value = getValue( name );
+        if( !(value instanceof List) ) {
+            value = getValueAs( name, "json");
         }
-        if( _value instanceof List ) {
-            @SuppressWarnings("rawtypes")
-            List values = (List)_value;
-            for( int i = 0; i < values.size(); i++ ) {
-                String itemName = String.format("%s.%d", name, i );
-                Configuration item = getValueAsConfiguration( itemName );
-                result.add( item );
-            }
+        if( value instanceof List ) {
+            return new ConfigurationList( name, (List<?>)value );
         }
-        return result;
+        return new ArrayList<Configuration>();
     }
     
+    /**
+     * Get a map value as a map of configurations.
+     * The map value is resolved once, and the returned map is a read-only view of it; each item's
+     * configuration is only created when the item is first accessed.
+     * @return A map of configurations. The map will be empty if the named value isn't a map.
+     */
+    @SuppressWarnings("unchecked")
     public Map<String,Configuration> getValueAsConfigurationMap(String name) {
-        Map<String,Configuration> result = new HashMap<String,Configuration>();
-        Object _value = getValue( name );
-        if( _value instanceof Map ) {
-            @SuppressWarnings("rawtypes")
-            Map values = (Map)_value;
-            for( Object key : values.keySet() ) {
-                String itemName = String.format("%s.%s", name, key );
-                Configuration item = getValueAsConfiguration( itemName );
-                result.put( key.toString(), item );
+        Object value = getValue( name );
+        if( value instanceof Map ) {
+            return new ConfigurationMap( name, (Map<Object,Object>)value );
+        }
+        return new HashMap<String,Configuration>();
+    }
+    
+    /** A lazily evaluated list of configurations. See getValueAsConfigurationList(). */
+    private class ConfigurationList extends AbstractList<Configuration> {
+        /** The name of the list value. */
+        private String name;
+        /** The list's raw item values. */
+        private List<?> values;
+        /** Resolved item configurations. */
+        private Configuration[] items;
+        /** Flags indicating which items have been resolved. */
+        private boolean[] resolved;
+        
+        ConfigurationList(String name, List<?> values) {
+            this.name = name;
+            this.values = values;
+            this.items = new Configuration[values.size()];
+            this.resolved = new boolean[values.size()];
+        }
+        
+        @Override
+        public synchronized Configuration get(int i) {
+            if( !resolved[i] ) {
+                items[i] = resolveItemAsConfiguration( values.get( i ), name, i );
+                resolved[i] = true;
             }
+            return items[i];
+        }
+        
+        @Override
+        public int size() {
+            return items.length;
+        }
+    }
+    
+    /** A lazily evaluated map of configurations. See getValueAsConfigurationMap(). */
+    private class ConfigurationMap extends AbstractMap<String,Configuration> {
+        /** The name of the map value. */
+        private String name;
+        /** The map's raw item values. */
+        private Map<Object,Object> values;
+        /** Resolved item configurations, keyed by item key. */
+        private Map<String,Configuration> items = new HashMap<String,Configuration>();
+        
+        ConfigurationMap(String name, Map<Object,Object> values) {
+            this.name = name;
+            this.values = values;
+        }
+        
+        @Override
+        public synchronized Configuration get(Object key) {
+            String skey = key.toString();
+            Configuration item = items.get( skey );
+            if( item == null && !items.containsKey( skey ) ) {
+                if( !values.containsKey( skey ) ) {
+                    return null;
+                }
+                item = resolveItemAsConfiguration( values.get( skey ), name, skey );
+                items.put( skey, item );
+            }
+            return item;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && values.containsKey( key.toString() );
+        }
+        
+        @Override
+        public int size() {
+            return values.size();
+        }
+        
+        @Override
+        public Set<Map.Entry<String,Configuration>> entrySet() {
+            return new AbstractSet<Map.Entry<String,Configuration>>() {
+                @Override
+                public Iterator<Map.Entry<String,Configuration>> iterator() {
+                    final Iterator<Object> keys = values.keySet().iterator();
+                    return new Iterator<Map.Entry<String,Configuration>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return keys.hasNext();
+                        }
+                        @Override
+                        public Map.Entry<String,Configuration> next() {
+                            String key = keys.next().toString();
+                            return new AbstractMap.SimpleImmutableEntry<String,Configuration>( key, get( key ) );
+                        }
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+                @Override
+                public int size() {
+                    return values.size();
+                }
+            };
         }
-        return result;
     }
     
     public Configuration mergeConfiguration(Configuration otherConfig) {
@@ -459,19 +1334,30 @@ public class Configuration extends JSONData {
         Configuration result = this;
         if( params.size() > 0 ) {
             result = new Configuration( data, this, androidContext );
-            result.templateContext = new HashMap<String,Object>( result.templateContext );
+            result.meta = meta;
+            Map<String,Object> bindings = new HashMap<String,Object>();
             for( String name : params.keySet() ) {
-                result.templateContext.put("$"+name, params.get( name ) );
+                bindings.put("$"+name, params.get( name ) );
             }
+            result.templateContext = TemplateScope.extend( result.templateContext, bindings );
+            result.clearValueCache();
         }
         return result;
     }
     
     /** Modify this configuration with a set of new values. */
     public void modify(Map<String,Object> data) {
-        // Create a copy of the config's data and then add the new data.
-        this.data = new HashMap<String,Object>( this.data );
-        this.data.putAll( data );
+        checkNotFrozen();
+        // Derive new data from the config's current data. The new data shares structure with the
+        // current data, so any references to the current data are unaffected.
+        this.data = getPersistentData().plusAll( data );
+        for( String key : data.keySet() ) {
+            if( isPrefixedKey( key ) ) {
+                pruneKeys();
+                break;
+            }
+        }
+        clearCaches();
     }
     
     /** Modify a single value in this configuration's data. */
@@ -483,22 +1369,93 @@ public class Configuration extends JSONData {
     public Configuration normalize() {
         // Start by flattening this configuration (i.e. merging its "config" property into the top level).
         Configuration result = flatten();
-        // Next, start processing the "extends" chain...
-        Configuration current = result;
+        // Next, process the "extends" chain. Each base configuration is normalized in turn, and the result
+        // is cached on the root configuration so that bases shared by many configurations are only flattened
+        // and merged once.
         // A set of previously visited parent configurations, to detect dependency loops.
         Set<Configuration> visited = new HashSet<Configuration>();
-        while( current.getValueType("semo:extends") == ValueType.Object ) {
-            current = current.getValueAsConfiguration("semo:extends");
-            if( visited.contains( current ) ) {
-                // Dependency loop detected, stop extending the config.
-                break;
+        Configuration base = result.getExtendedConfiguration( visited );
+        if( base != null ) {
+            result = base.normalizeAsBase( visited, root.getNormalizedBases() ).mergeConfiguration( result );
+        }
+        return result;
+    }
+    
+    /**
+     * Get the configuration extended by this configuration.
+     * @param visited   A set of previously visited configurations. The extended configuration is added to the set.
+     * @return The extended configuration, or null if this configuration doesn't extend another, or if a
+     * dependency loop is detected.
+     */
+    private Configuration getExtendedConfiguration(Set<Configuration> visited) {
+        if( getValueType("semo:extends") == ValueType.Object ) {
+            Configuration base = getValueAsConfiguration("semo:extends");
+            if( visited.add( base ) ) {
+                return base;
             }
-            visited.add( current );
-            result = current.flatten().mergeConfiguration( result );
+            // Dependency loop detected, stop extending the config.
+            Log.w( LogTag, String.format("semo:extends dependency loop detected at %s", base.resource == null ? base : base.resource.getURI() ));
+        }
+        return null;
+    }
+    
+    /**
+     * Normalize this configuration as the base of another configuration.
+     * The result is cached by base resource URI and template context.
+     */
+    private Configuration normalizeAsBase(Set<Configuration> visited, Map<NormalizationKey,Configuration> normalizedBases) {
+        NormalizationKey key = null;
+        if( resource != null && resource.getURI() != null ) {
+            key = new NormalizationKey( resource.getURI().toString(), templateContext );
+            Configuration result = normalizedBases.get( key );
+            if( result != null ) {
+                return result;
+            }
+        }
+        Configuration result = flatten();
+        Configuration base = getExtendedConfiguration( visited );
+        if( base != null ) {
+            result = base.normalizeAsBase( visited, normalizedBases ).mergeConfiguration( result );
+        }
+        if( key != null ) {
+            normalizedBases.put( key, result );
         }
         return result;
     }
     
+    /** Get the cache of normalized base configurations. Only used on root configurations. */
+    private Map<NormalizationKey,Configuration> getNormalizedBases() {
+        if( normalizedBases == null ) {
+            normalizedBases = new HashMap<NormalizationKey,Configuration>();
+        }
+        return normalizedBases;
+    }
+    
+    /**
+     * A normalized base configuration cache key.
+     * Composed of the base resource's URI and the identity of its template context.
+     */
+    private static class NormalizationKey {
+        private String uri;
+        private Map<String,Object> context;
+        NormalizationKey(String uri, Map<String,Object> context) {
+            this.uri = uri;
+            this.context = context;
+        }
+        @Override
+        public int hashCode() {
+            return uri.hashCode() * 31 + System.identityHashCode( context );
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if( obj instanceof NormalizationKey ) {
+                NormalizationKey key = (NormalizationKey)obj;
+                return key.context == context && key.uri.equals( uri );
+            }
+            return false;
+        }
+    }
+    
     /**
      * Flatten the configuration by merging its "config" property (if any) into the top level properties.
      */
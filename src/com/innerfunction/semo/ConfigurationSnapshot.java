@@ -0,0 +1,279 @@
+package com.innerfunction.semo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.innerfunction.util.NumericList;
+
+/**
+ * A precompiled configuration snapshot.
+ * A snapshot contains the parsed data of an app's configuration, and of the configuration files it
+ * references, in a compact binary format which can be read much faster than the original JSON. Snapshots
+ * are generated at build time by the ConfigurationCompiler tool, and record a hash of each source file
+ * so that out of date snapshots can be detected and ignored.
+ * The snapshot format is:
+ * - magic number "SEMO", format version (int);
+ * - source file count (int), then the URI (string) and CRC32 hash (long) of each source file;
+ * - string table size (int), then each string as a UTF-8 byte count (int) followed by its bytes;
+ * - document count (int), then the URI (string) and data (value) of each document.
+ * Strings outside the string table are written in the same way as table strings. Values are written as
+ * a tag byte followed by:
+ * - null, true, false: nothing;
+ * - long, double: the 8 byte value;
+ * - string: the string table index (int);
+ * - object: the member count (int), then the key string table index (int) and value of each member;
+ * - array: the item count (int), then each item value.
+ * Each distinct string is decoded once only, so all values read from a snapshot share string instances;
+ * numeric arrays are read as NumericLists.
+ * This class doesn't depend on any Android APIs, so that it can be used by build tools.
+ * @author juliangoacher
+ *
+ */
+public class ConfigurationSnapshot {
+
+    /** The snapshot file magic number; the ASCII characters "SEMO". */
+    public static final int Magic = 0x53454D4F;
+    /** The snapshot format version. */
+    public static final int Version = 1;
+
+    static final byte NullTag = 0, TrueTag = 1, FalseTag = 2, LongTag = 3, DoubleTag = 4, StringTag = 5, ObjectTag = 6, ArrayTag = 7;
+
+    /** The CRC32 hash of each source file, keyed by source URI. */
+    private Map<String,Long> sourceHashes = new LinkedHashMap<String,Long>();
+    /** The parsed data of each document, keyed by source URI. */
+    private Map<String,Object> documents = new LinkedHashMap<String,Object>();
+
+    /** Add a source document to the snapshot. The first document added is the root configuration. */
+    public void addDocument(String uri, Object data, long hash) {
+        documents.put( uri, data );
+        sourceHashes.put( uri, hash );
+    }
+
+    /** Get the CRC32 hash of each source file, keyed by source URI. */
+    public Map<String,Long> getSourceHashes() {
+        return sourceHashes;
+    }
+
+    /** Get the URI of the root configuration. */
+    public String getRootURI() {
+        return documents.isEmpty() ? null : documents.keySet().iterator().next();
+    }
+
+    /** Get a document's data. */
+    public Object getDocument(String uri) {
+        return documents.get( uri );
+    }
+
+    /** Get the data of all documents in the snapshot, keyed by source URI. */
+    public Map<String,Object> getDocuments() {
+        return documents;
+    }
+
+    /** Calculate the hash of a source file's contents. */
+    public static long hash(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update( data );
+        return crc.getValue();
+    }
+
+    /** Write the snapshot to an output stream. */
+    public void write(OutputStream out) throws IOException {
+        Map<String,Integer> strings = new LinkedHashMap<String,Integer>();
+        for( Object data : documents.values() ) {
+            addStrings( data, strings );
+        }
+        DataOutputStream dout = new DataOutputStream( out );
+        dout.writeInt( Magic );
+        dout.writeInt( Version );
+        dout.writeInt( sourceHashes.size() );
+        for( Map.Entry<String,Long> entry : sourceHashes.entrySet() ) {
+            writeString( dout, entry.getKey() );
+            dout.writeLong( entry.getValue() );
+        }
+        dout.writeInt( strings.size() );
+        for( String s : strings.keySet() ) {
+            writeString( dout, s );
+        }
+        dout.writeInt( documents.size() );
+        for( Map.Entry<String,Object> entry : documents.entrySet() ) {
+            writeString( dout, entry.getKey() );
+            writeValue( dout, entry.getValue(), strings );
+        }
+        dout.flush();
+    }
+
+    /** Add all strings in a value to a string table. */
+    @SuppressWarnings("rawtypes")
+    private static void addStrings(Object value, Map<String,Integer> strings) {
+        if( value instanceof String ) {
+            if( !strings.containsKey( value ) ) {
+                strings.put( (String)value, strings.size() );
+            }
+        }
+        else if( value instanceof Map ) {
+            for( Object entry : ((Map)value).entrySet() ) {
+                addStrings( ((Map.Entry)entry).getKey(), strings );
+                addStrings( ((Map.Entry)entry).getValue(), strings );
+            }
+        }
+        else if( value instanceof List ) {
+            for( Object item : (List)value ) {
+                addStrings( item, strings );
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void writeValue(DataOutputStream out, Object value, Map<String,Integer> strings) throws IOException {
+        if( value == null ) {
+            out.writeByte( NullTag );
+        }
+        else if( value instanceof Boolean ) {
+            out.writeByte( ((Boolean)value).booleanValue() ? TrueTag : FalseTag );
+        }
+        else if( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+            out.writeByte( LongTag );
+            out.writeLong( ((Number)value).longValue() );
+        }
+        else if( value instanceof Number ) {
+            out.writeByte( DoubleTag );
+            out.writeDouble( ((Number)value).doubleValue() );
+        }
+        else if( value instanceof String ) {
+            out.writeByte( StringTag );
+            out.writeInt( strings.get( value ) );
+        }
+        else if( value instanceof Map ) {
+            Map map = (Map)value;
+            out.writeByte( ObjectTag );
+            out.writeInt( map.size() );
+            for( Object entry : map.entrySet() ) {
+                out.writeInt( strings.get( ((Map.Entry)entry).getKey() ) );
+                writeValue( out, ((Map.Entry)entry).getValue(), strings );
+            }
+        }
+        else if( value instanceof List ) {
+            List list = (List)value;
+            out.writeByte( ArrayTag );
+            out.writeInt( list.size() );
+            for( Object item : list ) {
+                writeValue( out, item, strings );
+            }
+        }
+        else {
+            throw new IOException( String.format("Unsupported value type %s", value.getClass() ));
+        }
+    }
+
+    /**
+     * Read a snapshot from a buffer.
+     * @throws IOException If the buffer doesn't contain a valid snapshot, or the snapshot's format version
+     * isn't supported.
+     */
+    public static ConfigurationSnapshot read(ByteBuffer in) throws IOException {
+        try {
+            if( in.getInt() != Magic ) {
+                throw new IOException("Not a configuration snapshot");
+            }
+            int version = in.getInt();
+            if( version != Version ) {
+                throw new IOException( String.format("Unsupported snapshot version %d", version ));
+            }
+            ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+            int sourceCount = readCount( in );
+            for( int i = 0; i < sourceCount; i++ ) {
+                String uri = readString( in );
+                snapshot.sourceHashes.put( uri, in.getLong() );
+            }
+            String[] strings = new String[readCount( in )];
+            for( int i = 0; i < strings.length; i++ ) {
+                strings[i] = readString( in );
+            }
+            int documentCount = readCount( in );
+            for( int i = 0; i < documentCount; i++ ) {
+                String uri = readString( in );
+                snapshot.documents.put( uri, readValue( in, strings ) );
+            }
+            return snapshot;
+        }
+        catch(BufferUnderflowException e) {
+            throw new IOException("Truncated configuration snapshot");
+        }
+        catch(IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt configuration snapshot");
+        }
+    }
+
+    /** Read an item count. Each item occupies at least one byte, so the count can't exceed the bytes remaining. */
+    private static int readCount(ByteBuffer in) throws IOException {
+        int count = in.getInt();
+        if( count < 0 || count > in.remaining() ) {
+            throw new IOException("Corrupt configuration snapshot");
+        }
+        return count;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[readCount( in )];
+        in.get( bytes );
+        return new String( bytes, "UTF-8");
+    }
+
+    private static Object readValue(ByteBuffer in, String[] strings) throws IOException {
+        byte tag = in.get();
+        switch( tag ) {
+        case NullTag:
+            return null;
+        case TrueTag:
+            return Boolean.TRUE;
+        case FalseTag:
+            return Boolean.FALSE;
+        case LongTag:
+            return in.getLong();
+        case DoubleTag:
+            return in.getDouble();
+        case StringTag:
+            return strings[in.getInt()];
+        case ObjectTag:
+            int size = readCount( in );
+            Map<String,Object> map = new HashMap<String,Object>( size * 4 / 3 + 1 );
+            for( int i = 0; i < size; i++ ) {
+                String key = strings[in.getInt()];
+                map.put( key, readValue( in, strings ) );
+            }
+            return map;
+        case ArrayTag:
+            int length = readCount( in );
+            // Numeric arrays are stored without boxing their items.
+            byte firstTag = length > 0 ? in.get( in.position() ) : NullTag;
+            List<Object> list;
+            if( firstTag == LongTag || firstTag == DoubleTag ) {
+                list = new NumericList( length );
+            }
+            else {
+                list = new ArrayList<Object>( length );
+            }
+            for( int i = 0; i < length; i++ ) {
+                list.add( readValue( in, strings ) );
+            }
+            return list;
+        default:
+            throw new IOException( String.format("Bad value tag %d", tag ));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.innerfunction.semo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Optional instrumentation of configuration value resolution.
+ * When enabled, records a call count and total time for each configuration operation, keyed by:
+ * - value resolution (Configuration.getValueAs()): the value name and representation;
+ * - template renders: the template string;
+ * - @ URI dereferences: the URI;
+ * - # path references: the path and representation;
+ * - type conversions: the source value class and representation.
+ * Times are inclusive, so e.g. the time of a value resolution includes the time of any references
+ * and templates it evaluates. Recording is disabled by default, and has negligible cost when disabled.
+ * The stats are global and thread-safe.
+ * @author juliangoacher
+ *
+ */
+public class ConfigurationStats {
+
+    public static final String ValueResolution = "getValueAs";
+    public static final String TemplateRender = "template";
+    public static final String URIDereference = "dereference";
+    public static final String PathReference = "pathReference";
+    public static final String TypeConversion = "conversion";
+
+    /** The start time returned when recording is disabled. */
+    static final long NotRecording = Long.MIN_VALUE;
+
+    /** A call count and total time. */
+    static class Counter {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+    }
+
+    /** Flag indicating whether stats are being recorded. */
+    static volatile boolean Enabled;
+    /** The recorded counters, keyed by category and then by operation key. */
+    private static final ConcurrentHashMap<String,ConcurrentHashMap<String,Counter>> Counters = new ConcurrentHashMap<String,ConcurrentHashMap<String,Counter>>();
+
+    /** Enable or disable recording. */
+    public static void setEnabled(boolean enabled) {
+        Enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return Enabled;
+    }
+
+    /** Discard all recorded stats. */
+    public static void reset() {
+        Counters.clear();
+    }
+
+    /**
+     * Start timing an operation.
+     * @return The operation's start time; or NotRecording if recording is disabled.
+     */
+    static long start() {
+        return Enabled ? System.nanoTime() : NotRecording;
+    }
+
+    /**
+     * Record an operation.
+     * The operation key is composed of the key and an optional qualifier; these are only concatenated
+     * when recording is enabled.
+     * @param category  The operation category, e.g. ValueResolution.
+     * @param start     The operation start time, as returned by start().
+     * @param key       The operation key, e.g. a value name.
+     * @param qualifier A key qualifier, e.g. a representation name; or null.
+     */
+    static void record(String category, long start, String key, String qualifier) {
+        if( start == NotRecording ) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        if( qualifier != null ) {
+            key = key+" "+qualifier;
+        }
+        ConcurrentHashMap<String,Counter> counters = Counters.get( category );
+        if( counters == null ) {
+            counters = new ConcurrentHashMap<String,Counter>();
+            ConcurrentHashMap<String,Counter> existing = Counters.putIfAbsent( category, counters );
+            if( existing != null ) {
+                counters = existing;
+            }
+        }
+        Counter counter = counters.get( key );
+        if( counter == null ) {
+            counter = new Counter();
+            Counter existing = counters.putIfAbsent( key, counter );
+            if( existing != null ) {
+                counter = existing;
+            }
+        }
+        counter.count.incrementAndGet();
+        counter.nanos.addAndGet( nanos );
+    }
+
+    /**
+     * Get the recorded stats.
+     * @param maxEntries The maximum number of entries to report per category. Entries are ordered by
+     *                   descending total time.
+     * @return A map of categories onto maps of operation keys onto { "count", "totalMs" } maps.
+     */
+    public static Map<String,Object> getReportData(int maxEntries) {
+        Map<String,Object> report = new LinkedHashMap<String,Object>();
+        for( String category : Counters.keySet() ) {
+            // Take a snapshot of the counters, as they may be updated while the report is generated.
+            final Map<String,long[]> values = new HashMap<String,long[]>();
+            for( Map.Entry<String,Counter> entry : Counters.get( category ).entrySet() ) {
+                Counter counter = entry.getValue();
+                values.put( entry.getKey(), new long[]{ counter.count.get(), counter.nanos.get() } );
+            }
+            List<String> keys = new ArrayList<String>( values.keySet() );
+            Collections.sort( keys, new Comparator<String>() {
+                @Override
+                public int compare(String key0, String key1) {
+                    long nanos0 = values.get( key0 )[1];
+                    long nanos1 = values.get( key1 )[1];
+                    return nanos0 < nanos1 ? 1 : (nanos0 > nanos1 ? -1 : 0);
+                }
+            });
+            Map<String,Object> entries = new LinkedHashMap<String,Object>();
+            for( String key : keys.subList( 0, Math.min( maxEntries, keys.size() ) ) ) {
+                long[] value = values.get( key );
+                Map<String,Object> entry = new LinkedHashMap<String,Object>();
+                entry.put("count", value[0] );
+                entry.put("totalMs", value[1] / 1000000.0 );
+                entries.put( key, entry );
+            }
+            report.put( category, entries );
+        }
+        return report;
+    }
+
+    /** Get the recorded stats as a JSON string. See getReportData(). */
+    public static String getReport(int maxEntries) {
+        return JSONValue.toJSONString( getReportData( maxEntries ) );
+    }
+}
@@ -0,0 +1,270 @@
+package com.innerfunction.semo;
+
+import java.net.URISyntaxException;
+
+import android.util.Log;
+
+import com.innerfunction.uri.CompoundURI;
+import com.innerfunction.util.ConcurrentCache;
+import com.innerfunction.util.StringTemplate;
+
+/**
+ * A compiled configuration string value.
+ * Configuration string values are classified by prefix and content when first resolved, and compiled
+ * into one of the following types of value:
+ * - A literal value, e.g. "abc" or "`{abc}";
+ * - A template value, i.e. any value containing a { character, e.g. "{platform.display}";
+ * - A URI reference, e.g. "@named:banana";
+ * - A path reference to another configuration property, e.g. "#names.banana";
+ * - A template context reference, e.g. "$param1".
+ * Resolving a value then only requires the compiled value to be executed against a configuration.
+ * Compiled values don't depend on the configuration they are resolved against, and are shared through
+ * a cache keyed by source string.
+ * @author juliangoacher
+ *
+ */
+abstract class ConfigurationValue {
+
+    static final String LogTag = ConfigurationValue.class.getSimpleName();
+
+    /** The maximum number of compiled values held in the cache. */
+    static final int MaxCachedValues = 8192;
+    /** A cache of compiled values, keyed by source string. */
+    static final ConcurrentCache<String,ConfigurationValue> Cache = new ConcurrentCache<String,ConfigurationValue>( MaxCachedValues );
+
+    /**
+     * Resolve the value against a configuration.
+     * @param configuration The configuration the value belongs to.
+     * @param repr          The representation the value is being resolved to.
+     */
+    abstract Object resolve(Configuration configuration, String repr);
+
+    /**
+     * Resolve a configuration string value.
+     * Plain literal values - i.e. values without a special prefix and which don't contain a template -
+     * are returned immediately without compilation; all other values are compiled and then resolved.
+     */
+    static Object resolve(String value, Configuration configuration, String repr) {
+        if( isLiteral( value ) ) {
+            return value;
+        }
+        return compile( value ).resolve( configuration, repr );
+    }
+
+    /** Test whether a string is a plain literal value. */
+    static boolean isLiteral(String value) {
+        if( value.length() == 0 ) {
+            return true;
+        }
+        switch( value.charAt( 0 ) ) {
+        case '$': case '`': case '@': case '#':
+            return false;
+        default:
+            return value.indexOf('{') == -1;
+        }
+    }
+
+    /** Return the compiled form of a string value. */
+    static ConfigurationValue compile(String value) {
+        ConfigurationValue result = Cache.get( value );
+        if( result == null ) {
+            result = newValue( value );
+            Cache.put( value, result );
+        }
+        return result;
+    }
+
+    /** Create a new compiled value. */
+    private static ConfigurationValue newValue(String value) {
+        if( value.length() == 0 ) {
+            return new Literal( value );
+        }
+        char prefix = value.charAt( 0 );
+        if( prefix == '$' ) {
+            return new ContextReference( value );
+        }
+        if( prefix == '`' ) {
+            // Escaped values aren't evaluated as templates.
+            return new Literal( value.substring( 1 ) );
+        }
+        if( value.indexOf('{') > -1 ) {
+            return new Template( value );
+        }
+        if( prefix == '@' ) {
+            return new URIReference( value );
+        }
+        if( prefix == '#' ) {
+            return new PathReference( value );
+        }
+        return new Literal( value );
+    }
+
+    /**
+     * Resolve a string which isn't compiled, e.g. because it is the result of a template evaluation.
+     * Only the value's prefix is evaluated.
+     */
+    static Object resolveUncompiled(String svalue, Configuration configuration, String repr) {
+        if( svalue.length() > 0 ) {
+            switch( svalue.charAt( 0 ) ) {
+            case '@':
+                return configuration.dereference( svalue.substring( 1 ) );
+            case '#':
+                return PathReference.resolve( svalue, svalue.substring( 1 ), configuration, repr );
+            case '`':
+                return svalue.substring( 1 );
+            }
+        }
+        return svalue;
+    }
+
+    /**
+     * Find the URI referenced by a configuration string value.
+     * @return The referenced URI; or null if the value isn't a URI reference, or a template which
+     * evaluates to a URI reference.
+     */
+    static CompoundURI findURIReference(String value, Configuration configuration) {
+        if( value.length() == 0 || value.charAt( 0 ) != '@' ) {
+            return null;
+        }
+        ConfigurationValue cvalue = compile( value );
+        if( cvalue instanceof URIReference ) {
+            return ((URIReference)cvalue).uri;
+        }
+        if( cvalue instanceof Template ) {
+            String svalue = ((Template)cvalue).template.render( configuration.getTemplateContext() );
+            if( svalue.length() > 0 && svalue.charAt( 0 ) == '@' ) {
+                try {
+                    return new CompoundURI( svalue.substring( 1 ) );
+                }
+                catch(URISyntaxException e) {
+                    Log.w( LogTag, String.format("Parsing '%s'", svalue ));
+                }
+            }
+        }
+        return null;
+    }
+
+    /** A literal value. */
+    static class Literal extends ConfigurationValue {
+        private String value;
+        Literal(String value) {
+            this.value = value;
+        }
+        @Override
+        Object resolve(Configuration configuration, String repr) {
+            return value;
+        }
+    }
+
+    /** A template value. The template is rendered and then the result's prefix is evaluated. */
+    static class Template extends ConfigurationValue {
+        private StringTemplate template;
+        Template(String value) {
+            this.template = new StringTemplate( value );
+        }
+        /** Render the template, without evaluating the result. */
+        String render(Configuration configuration) {
+            return template.render( configuration.getTemplateContext() );
+        }
+        @Override
+        Object resolve(Configuration configuration, String repr) {
+            long start = ConfigurationStats.start();
+            String svalue = render( configuration );
+            if( start != ConfigurationStats.NotRecording ) {
+                ConfigurationStats.record( ConfigurationStats.TemplateRender, start, template.toString(), null );
+            }
+            return resolveUncompiled( svalue, configuration, repr );
+        }
+    }
+
+    /**
+     * Any string values starting with a '@' are potentially internal URI references.
+     * The URI is dereferenced against the configuration's base resource.
+     */
+    static class URIReference extends ConfigurationValue {
+        private String value;
+        private CompoundURI uri;
+        URIReference(String value) {
+            this.value = value;
+            try {
+                this.uri = new CompoundURI( value.substring( 1 ) );
+            }
+            catch(URISyntaxException e) {
+                Log.e( LogTag, String.format("Parsing '%s'", value ), e );
+            }
+        }
+        @Override
+        Object resolve(Configuration configuration, String repr) {
+            return uri == null ? null : configuration.dereference( uri );
+        }
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    /**
+     * Any string values starting with a '#' are potential path references to other properties in the
+     * same configuration. The path is resolved against the configuration root; if it doesn't resolve
+     * then the original value is returned. References which form part of a reference cycle resolve to
+     * null; the cycle is logged when it is detected.
+     */
+    static class PathReference extends ConfigurationValue {
+        private String value;
+        private String path;
+        PathReference(String value) {
+            this.value = value;
+            this.path = value.substring( 1 );
+        }
+        @Override
+        Object resolve(Configuration configuration, String repr) {
+            return resolve( value, path, configuration, repr );
+        }
+        static Object resolve(String value, String path, Configuration configuration, String repr) {
+            long start = ConfigurationStats.start();
+            Object result = configuration.getRoot().resolvePathReference( path, repr );
+            ConfigurationStats.record( ConfigurationStats.PathReference, start, path, repr );
+            if( result == Configuration.PathReferenceCycle ) {
+                return null;
+            }
+            return result == null ? value : result;
+        }
+    }
+
+    /**
+     * Any string values starting with a '$' are template context references.
+     * If the context value is a string then it is in turn resolved as a configuration value, but
+     * without further context reference evaluation.
+     */
+    static class ContextReference extends ConfigurationValue {
+        private String name;
+        /** The reference string compiled as a template; used when a context value is itself a $ value. */
+        private Template template;
+        ContextReference(String name) {
+            this.name = name;
+        }
+        @Override
+        Object resolve(Configuration configuration, String repr) {
+            Object value = configuration.getTemplateContext().get( name );
+            if( value instanceof String && ((String)value).length() > 0 ) {
+                String svalue = (String)value;
+                if( isLiteral( svalue ) ) {
+                    return svalue;
+                }
+                ConfigurationValue cvalue = compile( svalue );
+                if( cvalue instanceof ContextReference ) {
+                    cvalue = ((ContextReference)cvalue).asTemplate();
+                }
+                return cvalue.resolve( configuration, repr );
+            }
+            return value;
+        }
+        /** Return the reference string compiled as a template. */
+        private synchronized Template asTemplate() {
+            if( template == null ) {
+                template = new Template( name );
+            }
+            return template;
+        }
+    }
+}
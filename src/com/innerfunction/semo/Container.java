@@ -1,13 +1,18 @@
 package com.innerfunction.semo;
 
+import java.io.File;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 //import com.innerfunction.semo.Configuration.ValueType;
 
@@ -54,15 +59,107 @@ public class Container implements Service, Configurable {
     private Configuration types = Configuration.EmptyConfiguration;
     /** Flag indicating whether the container's services are running. */
     private boolean running;
+    /** The class name mapped to each type name. Resolved from the type mappings by setTypes(). */
+    private Map<String,String> classNamesByType = new HashMap<String,String>();
+    /** A cache of loaded classes, keyed by class name. */
+    private Map<String,Class<?>> classesByName = new HashMap<String,Class<?>>();
+    /** The names of named objects, keyed by the type name they were configured with. */
+    private Map<String,List<String>> namesByType = new HashMap<String,List<String>>();
+    /** The names of named objects, keyed by object class. */
+    private Map<Class<?>,List<String>> namesByClass = new HashMap<Class<?>,List<String>>();
+    /** Records of the named objects built from the container's configuration, keyed by name. */
+    private Map<String,NamedObjectRecord> namedObjectRecords = new HashMap<String,NamedObjectRecord>();
     
     /** Get a named object. */
     public Object getNamed(String name) {
         return named.get( name );
     }
     
-    /** Set the object type mappings. */
+    /**
+     * Get all named objects which are instances of a class.
+     * @param cl    A class or interface.
+     * @return A list of matching named objects. Objects of the same class are listed in the order they
+     * were added to the container.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> getNamedOfType(Class<T> cl) {
+        List<T> result = new ArrayList<T>();
+        for( Class<?> objClass : namesByClass.keySet() ) {
+            if( cl.isAssignableFrom( objClass ) ) {
+                for( String name : namesByClass.get( objClass ) ) {
+                    result.add( (T)named.get( name ) );
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Get the names of all named objects configured with a type.
+     * @param type  A type name, as used in semo:type properties.
+     * @return A list of object names, in the order they were added to the container.
+     */
+    public List<String> getNamesForType(String type) {
+        List<String> names = namesByType.get( type );
+        return names == null ? new ArrayList<String>() : new ArrayList<String>( names );
+    }
+    
+    /**
+     * Add a named object to the container.
+     * @param name      The object's name.
+     * @param object    The object.
+     * @param type      The type name the object was configured with, or null.
+     */
+    protected void putNamed(String name, Object object, String type) {
+        removeNamed( name );
+        named.put( name, object );
+        if( type != null ) {
+            addToIndex( namesByType, type, name );
+        }
+        addToIndex( namesByClass, object.getClass(), name );
+    }
+    
+    /** Remove a named object from the container. */
+    protected void removeNamed(String name) {
+        Object object = named.remove( name );
+        if( object != null ) {
+            removeFromIndex( namesByClass, object.getClass(), name );
+            for( String type : new ArrayList<String>( namesByType.keySet() ) ) {
+                removeFromIndex( namesByType, type, name );
+            }
+        }
+    }
+    
+    private static <K> void addToIndex(Map<K,List<String>> index, K key, String name) {
+        List<String> names = index.get( key );
+        if( names == null ) {
+            names = new ArrayList<String>();
+            index.put( key, names );
+        }
+        names.add( name );
+    }
+    
+    private static <K> void removeFromIndex(Map<K,List<String>> index, K key, String name) {
+        List<String> names = index.get( key );
+        if( names != null && names.remove( name ) && names.isEmpty() ) {
+            index.remove( key );
+        }
+    }
+    
+    /**
+     * Set the object type mappings.
+     * The class name for each type is resolved once here, rather than each time an object of the type
+     * is instantiated.
+     */
     public void setTypes(Configuration types) {
         this.types = types == null ? Configuration.EmptyConfiguration : types;
+        classNamesByType = new HashMap<String,String>();
+        for( String type : this.types.getValueNames() ) {
+            String className = this.types.getValueAsString( type );
+            if( className != null ) {
+                classNamesByType.put( type, className );
+            }
+        }
     }
     
     /**
@@ -93,7 +190,7 @@ public class Container implements Service, Configurable {
         if( className == null ) {
             String type = configuration.getValueAsString("semo:type");
             if( type != null ) {
-                className = types.getValueAsString( type );
+                className = classNamesByType.get( type );
                 if( className == null ) {
                     Log.w( Tag, String.format("Make %s: No class name found for type %s", id, type ));
                 }
@@ -126,7 +223,21 @@ public class Container implements Service, Configurable {
      * @throws InstantiationException 
      */
     protected Object newInstanceForClassName(String className) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
-        return Class.forName( className ).newInstance();
+        Class<?> cl = classesByName.get( className );
+        if( cl == null ) {
+            cl = Class.forName( className );
+            classesByName.put( className, cl );
+        }
+        return newInstanceForClass( cl );
+    }
+    
+    /**
+     * Return a new instance of a class.
+     * @throws IllegalAccessException 
+     * @throws InstantiationException 
+     */
+    protected Object newInstanceForClass(Class<?> cl) throws InstantiationException, IllegalAccessException {
+        return cl.newInstance();
     }
     
     /**
@@ -151,25 +262,39 @@ public class Container implements Service, Configurable {
                 ((IOCConfigurable)object).beforeConfigure( this );
             }
             Map<String,Method> methods = getPropertyMethodsForObject( object );
+            // Note that the configuration's value names don't include any platform prefixed or meta names
+            // (e.g. ios:xxx, semo:type); and and:xxx names are read as xxx. See Configuration.pruneKeys().
             for( String name : configuration.getValueNames() ) {
-                if( name.equals("and:class") ) {
-                    // Skip class properties.
-                    continue;
-                }
-                if( name.startsWith("ios:") || name.startsWith("semo:") ) {
-                    continue; // Skip names starting with ios: or semo: 
-                }
-                if( name.startsWith("and:") ) {
-                    // Strip and: prefix from names
-                    name = name.substring( 4 );
-                }
                 try {
                     Method method = methods.get( name );
                     if( method == null ) {
                         continue;
                     }
                     Class<?> propType = method.getParameterTypes()[0];
-                    if( propType == Boolean.class ) {
+                    if( propType.isPrimitive() ) {
+                        // Primitive setters are only called if the value can be converted, so that the
+                        // object's own default is kept if it can't.
+                        boolean convertible = propType == Boolean.TYPE ? configuration.hasBoolean( name ) : configuration.hasNumber( name );
+                        if( !convertible ) {
+                            Log.w( Tag, String.format("Configure %s: Unable to convert value of %s to %s", id, name, propType ));
+                        }
+                        else if( propType == Boolean.TYPE ) {
+                            method.invoke( object, configuration.getBoolean( name, false ) );
+                        }
+                        else if( propType == Integer.TYPE ) {
+                            method.invoke( object, configuration.getInt( name, 0 ) );
+                        }
+                        else if( propType == Long.TYPE ) {
+                            method.invoke( object, configuration.getLong( name, 0 ) );
+                        }
+                        else if( propType == Float.TYPE ) {
+                            method.invoke( object, (float)configuration.getDouble( name, 0 ) );
+                        }
+                        else if( propType == Double.TYPE ) {
+                            method.invoke( object, configuration.getDouble( name, 0 ) );
+                        }
+                    }
+                    else if( propType == Boolean.class ) {
                         method.invoke( object,  configuration.getValueAsBoolean( name ) );
                     }
                     else if( Number.class.isAssignableFrom( propType ) ) {
@@ -309,63 +434,185 @@ public class Container implements Service, Configurable {
      */
     @Override
     public void configure(Configuration configuration) {
-        // Property methods for this container.
-        Map<String,Method> propertyMethods = getPropertyMethodsForObject( this );
         // Add named objects.
+        Configuration namedConfig = getNamedConfiguration( configuration );
+        if( namedConfig != null ) {
+            buildNamedObjects( namedConfig, namedConfig.getValueNames() );
+        }
+    }
+
+    /**
+     * Reconfigure this container using a new version of its configuration.
+     * Compares the effective configuration of each named object in the new configuration with the
+     * configuration it was built with, and only rebuilds those objects whose configuration has changed,
+     * which have been added or removed, or which reference a rebuilt object (directly, or through other
+     * named objects). Services built from unchanged configurations are left running; services belonging
+     * to rebuilt objects are stopped, and their replacements are started if the container is running.
+     * Named objects not built from the container's configuration are unaffected.
+     * @param configuration The new container configuration.
+     */
+    public void reconfigure(Configuration configuration) {
+        Configuration namedConfig = getNamedConfiguration( configuration );
+        List<String> names = namedConfig != null ? namedConfig.getValueNames() : new ArrayList<String>();
+        Map<Object,String> namedObjects = getNamedObjectIdentities();
+        // Find the named objects whose configurations have changed.
+        Set<String> rebuild = new HashSet<String>();
+        Map<String,NamedObjectRecord> records = new HashMap<String,NamedObjectRecord>();
+        for( String name : names ) {
+            Configuration objConfig = namedConfig.getValueAsConfiguration( name );
+            if( objConfig == null ) {
+                continue;
+            }
+            NamedObjectRecord record = new NamedObjectRecord( objConfig );
+            records.put( name, record );
+            NamedObjectRecord previous = namedObjectRecords.get( name );
+            if( !record.isEquivalentTo( previous, namedObjects ) || previous.haveResourcesChanged() ) {
+                rebuild.add( name );
+            }
+        }
+        for( String name : namedObjectRecords.keySet() ) {
+            if( !records.containsKey( name ) ) {
+                rebuild.add( name );
+            }
+        }
+        // Add the dependents of changed objects.
+        boolean added = true;
+        while( added ) {
+            added = false;
+            for( String name : records.keySet() ) {
+                if( !rebuild.contains( name ) && !Collections.disjoint( records.get( name ).getDependencies( namedObjects ), rebuild ) ) {
+                    rebuild.add( name );
+                    added = true;
+                }
+            }
+        }
+        // Remove the objects being rebuilt, and stop their services.
+        for( String name : rebuild ) {
+            NamedObjectRecord record = namedObjectRecords.remove( name );
+            if( record != null ) {
+                for( Service service : record.services ) {
+                    if( running ) {
+                        try {
+                            service.stopService();
+                        }
+                        catch(Exception e) {
+                            Log.e(Tag, "Stopping services", e );
+                        }
+                    }
+                    services.remove( service );
+                }
+                removeNamed( name );
+            }
+        }
+        // Keep the records of unchanged objects, but using their new configurations.
+        List<String> rebuildNames = new ArrayList<String>();
+        for( String name : names ) {
+            if( rebuild.contains( name ) ) {
+                rebuildNames.add( name );
+            }
+            else if( records.containsKey( name ) ) {
+                NamedObjectRecord record = records.get( name );
+                NamedObjectRecord previous = namedObjectRecords.get( name );
+                record.services = previous.services;
+                record.resourceStamps = previous.resourceStamps;
+                namedObjectRecords.put( name, record );
+            }
+        }
+        Log.i( Tag, String.format("Reconfiguring container: rebuilding %d of %d named objects %s", rebuildNames.size(), names.size(), rebuildNames ));
+        if( rebuildNames.size() > 0 ) {
+            buildNamedObjects( namedConfig, rebuildNames );
+        }
+    }
+
+    /** Get the configuration of the container's named objects. */
+    private Configuration getNamedConfiguration(Configuration configuration) {
         Configuration namedConfig = configuration.getValueAsConfiguration("named");
         if( namedConfig == null ) {
             namedConfig = configuration.getValueAsConfiguration("names");
         }
-        if( namedConfig != null ) {
-            List<String> names = namedConfig.getValueNames();
-            Map<String,Configuration> objConfigs = new HashMap<String,Configuration>();
-            // Initialize named objects.
-            for(String name : names) {
-                Configuration objConfig = namedConfig.getValueAsConfiguration( name );
-                Object object = null;
-                // Try instantiating named property from configuration.
-                if( objConfig.hasValue("and:class") || objConfig.hasValue("semo:type") ) {
-                    object = instantiateObject( objConfig, name );
-                }
-                // If no object then try inferring a type from the corresponding container
-                // property, if any.
-                if( object == null ) {
-                    Method propertyMethod = propertyMethods.get( name );
-                    if( propertyMethod != null ) {
-                        Class<?> propType = propertyMethod.getParameterTypes()[0];
-                        String className = propType.getName();
-                        if( className != null ) {
-                            try {
-                                object = newInstanceForClassName( className );
-                            }
-                            catch(Exception e) {
-                            }
+        return namedConfig;
+    }
+
+    /** Get a map of the container's named objects onto their names. */
+    private Map<Object,String> getNamedObjectIdentities() {
+        Map<Object,String> identities = new IdentityHashMap<Object,String>();
+        for( String name : named.keySet() ) {
+            identities.put( named.get( name ), name );
+        }
+        return identities;
+    }
+
+    /**
+     * Build, configure and add named objects to the container.
+     * @param namedConfig   The configuration of the container's named objects.
+     * @param names         The names of the objects to build.
+     */
+    private void buildNamedObjects(Configuration namedConfig, List<String> names) {
+        // Property methods for this container.
+        Map<String,Method> propertyMethods = getPropertyMethodsForObject( this );
+        Map<String,Configuration> objConfigs = new HashMap<String,Configuration>();
+        // Initialize named objects.
+        for(String name : names) {
+            Configuration objConfig = namedConfig.getValueAsConfiguration( name );
+            Object object = null;
+            // Try instantiating named property from configuration.
+            if( objConfig.hasValue("and:class") || objConfig.hasValue("semo:type") ) {
+                object = instantiateObject( objConfig, name );
+            }
+            // If no object then try inferring a type from the corresponding container
+            // property, if any.
+            if( object == null ) {
+                Method propertyMethod = propertyMethods.get( name );
+                if( propertyMethod != null ) {
+                    Class<?> propType = propertyMethod.getParameterTypes()[0];
+                    String className = propType.getName();
+                    if( className != null ) {
+                        try {
+                            object = newInstanceForClassName( className );
+                        }
+                        catch(Exception e) {
                         }
                     }
                 }
-                // If object then add to named set and record configuration.
-                if( object != null ) {
-                    named.put( name, object );
-                    objConfigs.put( name, objConfig );
-                }
             }
-            // Configure named objects.
-            for(String name : names) {
-                Object object = named.get( name );
-                if( object != null ) {
-                    Configuration objConfig = objConfigs.get( name );
+            // If object then add to named set and record configuration.
+            if( object != null ) {
+                putNamed( name, object, objConfig.getValueAsString("semo:type") );
+                objConfigs.put( name, objConfig );
+            }
+        }
+        // Record the configuration of each new object. The configuration's fingerprint is only calculated
+        // if the container is reconfigured.
+        for(String name : objConfigs.keySet() ) {
+            namedObjectRecords.put( name, new NamedObjectRecord( objConfigs.get( name ) ) );
+        }
+        // Configure named objects.
+        for(String name : names) {
+            Object object = named.get( name );
+            Configuration objConfig = objConfigs.get( name );
+            if( object != null && objConfig != null ) {
+                int serviceCount = services.size();
+                NamedObjectRecord record = namedObjectRecords.get( name );
+                // Record the files the object is configured from, so that changes to them can be detected.
+                Map<String,String> stamps = Configuration.recordResourceStamps( record.resourceStamps );
+                try {
                     configureObject( object, objConfig, name );
-                    // Try assigning the named object to a container property.
-                    Method propertyMethod = propertyMethods.get( name );
-                    if( propertyMethod != null ) {
-                        Class<?> propType = propertyMethod.getParameterTypes()[0];
-                        if( propType.isAssignableFrom( object.getClass() ) ) {
-                            try {
-                                propertyMethod.invoke( this, object );
-                            }
-                            catch(Exception e) {
-                                Log.e( Tag, String.format("Error setting container property '%s'", name ), e );
-                            }
+                }
+                finally {
+                    Configuration.recordResourceStamps( stamps );
+                }
+                // Record any services added by the object's configuration.
+                record.services.addAll( services.subList( serviceCount, services.size() ) );
+                // Try assigning the named object to a container property.
+                Method propertyMethod = propertyMethods.get( name );
+                if( propertyMethod != null ) {
+                    Class<?> propType = propertyMethod.getParameterTypes()[0];
+                    if( propType.isAssignableFrom( object.getClass() ) ) {
+                        try {
+                            propertyMethod.invoke( this, object );
+                        }
+                        catch(Exception e) {
+                            Log.e( Tag, String.format("Error setting container property '%s'", name ), e );
                         }
                     }
                 }
@@ -427,4 +674,60 @@ public class Container implements Service, Configurable {
         return methods;
     }
     
+    /**
+     * A record of the configuration a named object was built from.
+     * Used to detect changes to the object's configuration; see reconfigure(). The configuration's
+     * fingerprint is calculated when first needed. The fingerprint doesn't dereference URIs, so the
+     * files dereferenced while the object was configured are stamped when it is built.
+     */
+    private static class NamedObjectRecord {
+        /** The object's configuration. */
+        Configuration configuration;
+        /** The object's configuration fingerprint; see Configuration.getFingerprint(). Null until calculated. */
+        Object fingerprint;
+        /** The names of the named objects referenced by the object's configuration. */
+        Set<String> dependencies = new HashSet<String>();
+        /** The services added to the container when the object was configured. */
+        List<Service> services = new ArrayList<Service>();
+        /** Stamps of the files dereferenced when the object was configured; see Configuration.recordResourceStamps(). */
+        Map<String,String> resourceStamps = new HashMap<String,String>();
+        
+        NamedObjectRecord(Configuration configuration) {
+            this.configuration = configuration;
+        }
+        
+        /**
+         * Get the configuration's fingerprint.
+         * @param namedObjects A map of the container's named objects onto their names.
+         */
+        Object getFingerprint(Map<Object,String> namedObjects) {
+            if( fingerprint == null ) {
+                fingerprint = configuration.getFingerprint( namedObjects, dependencies );
+            }
+            return fingerprint;
+        }
+        
+        /** Get the names of the named objects referenced by the configuration. */
+        Set<String> getDependencies(Map<Object,String> namedObjects) {
+            getFingerprint( namedObjects );
+            return dependencies;
+        }
+        
+        /** Test whether any of the files dereferenced when the object was configured have since changed. */
+        boolean haveResourcesChanged() {
+            for( Map.Entry<String,String> entry : resourceStamps.entrySet() ) {
+                String stamp = Configuration.getResourceStamp( new File( entry.getKey() ) );
+                if( !stamp.equals( entry.getValue() ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        /** Test whether an object built from this record's configuration would be equivalent to another's. */
+        boolean isEquivalentTo(NamedObjectRecord record, Map<Object,String> namedObjects) {
+            Object fingerprint = getFingerprint( namedObjects );
+            return record != null && fingerprint.equals( record.getFingerprint( namedObjects ) );
+        }
+    }
 }
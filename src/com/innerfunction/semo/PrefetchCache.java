@@ -0,0 +1,120 @@
+package com.innerfunction.semo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.util.Log;
+
+import com.innerfunction.uri.CompoundURI;
+import com.innerfunction.uri.Resource;
+import com.innerfunction.util.JSONInterner;
+
+/**
+ * A cache of resources dereferenced ahead of use.
+ * See Configuration.prefetchURIReferences(). Resources are dereferenced concurrently using a bounded
+ * thread pool; the JSON data of each resource is also read at the same time. Only absolute URIs without
+ * parameters are cached, as the result of dereferencing a relative URI depends on the resource it is
+ * dereferenced against.
+ * @author juliangoacher
+ *
+ */
+class PrefetchCache {
+
+    static final String LogTag = PrefetchCache.class.getSimpleName();
+
+    /** Prefetched resources, keyed by URI. */
+    private Map<String,Resource> resources = new ConcurrentHashMap<String,Resource>();
+    /** Prefetched resource JSON data, keyed by resource URI. */
+    private Map<String,Object> jsonData = new ConcurrentHashMap<String,Object>();
+
+    /** Test whether a URI's resource can be cached. */
+    static boolean isCacheable(CompoundURI uri) {
+        String name = uri.getName();
+        return name != null && name.startsWith("/") && uri.getParameters().isEmpty();
+    }
+
+    /**
+     * Dereference a set of URIs concurrently, and wait for all results.
+     * @param uris      The URIs to dereference.
+     * @param context   The resource to dereference the URIs against.
+     * @param threads   The maximum number of threads to use.
+     * @param interner  An optional interner used to deduplicate the resources' JSON data.
+     */
+    void prefetch(Collection<CompoundURI> uris, final Resource context, int threads, final JSONInterner interner) {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for( final CompoundURI uri : uris ) {
+            final String key = uri.toString();
+            if( !isCacheable( uri ) || resources.containsKey( key ) ) {
+                continue;
+            }
+            tasks.add( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Resource resource = context.dereference( uri );
+                    if( resource != null ) {
+                        Object data = resource.asLazyJSONData();
+                        if( interner != null ) {
+                            data = interner.deduplicate( data );
+                        }
+                        if( data instanceof Map || data instanceof List ) {
+                            jsonData.put( key, data );
+                        }
+                        resources.put( key, resource );
+                    }
+                    return null;
+                }
+            });
+        }
+        if( tasks.size() == 0 ) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, Math.min( threads, tasks.size() ) ) );
+        try {
+            for( Future<Void> result : executor.invokeAll( tasks ) ) {
+                try {
+                    result.get();
+                }
+                catch(ExecutionException e) {
+                    Log.w( LogTag, "Prefetching URI", e.getCause() );
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /** Add a resource and its JSON data to the cache. Ignored if the resource's URI isn't cacheable. */
+    void put(Resource resource, Object data) {
+        CompoundURI uri = resource.getURI();
+        if( uri != null && isCacheable( uri ) ) {
+            String key = uri.toString();
+            resources.put( key, resource );
+            if( data != null ) {
+                jsonData.put( key, data );
+            }
+        }
+    }
+
+    /** Get a prefetched resource. Returns null if the URI's resource wasn't prefetched. */
+    Resource getResource(CompoundURI uri) {
+        return isCacheable( uri ) ? resources.get( uri.toString() ) : null;
+    }
+
+    /** Get a prefetched resource's JSON data. Returns null if the resource's data wasn't prefetched. */
+    Object getJSONData(Resource resource) {
+        CompoundURI uri = resource.getURI();
+        return uri == null ? null : jsonData.get( uri.toString() );
+    }
+}
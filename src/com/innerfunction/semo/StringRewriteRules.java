@@ -30,6 +30,19 @@ public class StringRewriteRules {
             }
             return result;
         }
+
+        /**
+         * Rewrite a string into a buffer.
+         * @return true if the string matched the rule's pattern and the result was appended to the buffer.
+         */
+        public boolean rewriteStringTo(String s, StringBuilder out) {
+            String[] matches = patternRegexp.matches( s );
+            if( matches != null ) {
+                resultTemplate.renderTo( out, matches );
+                return true;
+            }
+            return false;
+        }
     }
     
     private List<Rule> rules;
@@ -52,4 +65,20 @@ public class StringRewriteRules {
         }
         return result;
     }
+
+    /**
+     * Rewrite a string into a buffer, using the first matching rule.
+     * Allows a list of strings to be rewritten into a single buffer without creating intermediate results.
+     * @return true if a rule matched and the result was appended to the buffer.
+     */
+    public boolean rewriteStringTo(String s, StringBuilder out) {
+        if( rules != null ) {
+            for( Rule rule : rules ) {
+                if( rule.rewriteStringTo( s, out ) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 }
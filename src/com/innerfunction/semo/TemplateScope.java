@@ -0,0 +1,75 @@
+package com.innerfunction.semo;
+
+import java.util.Map;
+
+import com.innerfunction.util.LayeredMap;
+
+/**
+ * A configuration template context scope.
+ * A scope is composed of a set of bindings and a pointer to a parent context. Values are looked up
+ * in the scope's bindings first, and then in the parent context. This allows configurations with
+ * parameter declarations to extend their inherited template context without copying it.
+ * Scopes are read-only. Scope chains are flattened when they grow deeper than LayeredMap.MaxDepth
+ * (see LayeredMap), to bound the cost of lookups.
+ * @author juliangoacher
+ *
+ */
+class TemplateScope extends LayeredMap<String,Object> {
+
+    TemplateScope(Map<String,Object> bindings, Map<String,Object> parent) {
+        super( bindings, parent );
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object remove(Object key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /** Test whether the specified context is this scope, or is in this scope's parent chain. */
+    boolean extendsContext(Map<String,Object> context) {
+        Map<String,Object> scope = this;
+        while( scope != null ) {
+            if( scope == context ) {
+                return true;
+            }
+            scope = scope instanceof TemplateScope ? ((TemplateScope)scope).getBase() : null;
+        }
+        return false;
+    }
+
+    /**
+     * Extend a template context with a set of bindings.
+     * Returns the bindings unchanged if there is no context to extend.
+     */
+    static Map<String,Object> extend(Map<String,Object> context, Map<String,Object> bindings) {
+        return context == null ? bindings : new TemplateScope( bindings, context );
+    }
+
+    /**
+     * Merge two template contexts.
+     * Values in the second context take precedence over values in the first.
+     */
+    static Map<String,Object> merge(Map<String,Object> context0, Map<String,Object> context1) {
+        if( context0 == context1 || context0 == null ) {
+            return context1;
+        }
+        if( context1 == null ) {
+            return context0;
+        }
+        // If the second context already extends the first then it already contains all of its values.
+        if( context1 instanceof TemplateScope && ((TemplateScope)context1).extendsContext( context0 ) ) {
+            return context1;
+        }
+        return new TemplateScope( context1, context0 );
+    }
+}
@@ -0,0 +1,68 @@
+package com.innerfunction.semo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cache of values resolved by a configuration.
+ * Values are keyed by representation and then by value name. Null values are cached using a
+ * placeholder, so that unresolvable names aren't repeatedly resolved.
+ * The cache is thread-safe.
+ * @author juliangoacher
+ *
+ */
+class ValueCache {
+
+    /** Placeholder for cached null values. */
+    static final Object NullValue = new Object();
+
+    /** Cached values, keyed by representation and then by name. */
+    private ConcurrentHashMap<String,Map<String,Object>> valuesByRepr = new ConcurrentHashMap<String,Map<String,Object>>();
+    /** The number of cache hits. */
+    private AtomicInteger hits = new AtomicInteger();
+    /** The number of cache misses. */
+    private AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * Get a cached value.
+     * @return The cached value; NullValue if a null value is cached; or null if no value is cached.
+     */
+    Object get(String name, String repr) {
+        Map<String,Object> values = valuesByRepr.get( repr );
+        Object value = values == null ? null : values.get( name );
+        if( value == null ) {
+            misses.incrementAndGet();
+        }
+        else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /** Cache a value. */
+    void put(String name, String repr, Object value) {
+        Map<String,Object> values = valuesByRepr.get( repr );
+        if( values == null ) {
+            values = new ConcurrentHashMap<String,Object>();
+            Map<String,Object> existing = valuesByRepr.putIfAbsent( repr, values );
+            if( existing != null ) {
+                values = existing;
+            }
+        }
+        values.put( name, value == null ? NullValue : value );
+    }
+
+    /** Discard all cached values. Hit and miss counts are preserved. */
+    void clear() {
+        valuesByRepr.clear();
+    }
+
+    int getHits() {
+        return hits.get();
+    }
+
+    int getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,88 @@
+package com.innerfunction.semo.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.semo.ConfigurationSnapshot;
+import com.innerfunction.semo.tools.ConfigurationCompiler;
+
+public class ConfigurationSnapshotTest extends AndroidTestCase {
+
+    public void testReadWrite() throws IOException {
+        Object config = JSONValue.parse("{\"a\":[1,2.5,true,false,null,\"x\"],\"b\":{\"c\":\"x\",\"d\":\"é\"}}");
+        Object types = JSONValue.parse("[{\"semo:type\":\"x\"}]");
+        ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+        snapshot.addDocument("app:/configuration.json", config, 1 );
+        snapshot.addDocument("app:/types.json", types, 2 );
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write( out );
+
+        ConfigurationSnapshot result = ConfigurationSnapshot.read( ByteBuffer.wrap( out.toByteArray() ) );
+        assertEquals("app:/configuration.json", result.getRootURI() );
+        assertEquals( config, result.getDocument("app:/configuration.json") );
+        assertEquals( types, result.getDocument("app:/types.json") );
+        assertEquals( Long.valueOf( 2 ), result.getSourceHashes().get("app:/types.json") );
+        // Strings are shared between values.
+        Map<?,?> map = (Map<?,?>)result.getDocument("app:/configuration.json");
+        assertSame( ((List<?>)map.get("a")).get( 5 ), ((Map<?,?>)map.get("b")).get("c") );
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testCompilerNormalization() throws IOException, ParseException {
+        File assetsDir = File.createTempFile("assets", "");
+        assetsDir.delete();
+        assetsDir.mkdir();
+        String json = "{\"schemes\":{\"s\":{\"semo:config\":{\"a\":1}}},"
+                    + "\"named\":{\"n\":{\"semo:type\":\"x\",\"semo:config\":{\"a\":1},"
+                    +                      "\"p\":{\"semo:type\":\"y\",\"semo:config\":{\"a\":1}}}},"
+                    + "\"data\":{\"semo:config\":{\"a\":1}}}";
+        FileOutputStream out = new FileOutputStream( new File( assetsDir, "configuration.json") );
+        try {
+            out.write( json.getBytes("UTF-8") );
+        }
+        finally {
+            out.close();
+        }
+        ConfigurationCompiler compiler = new ConfigurationCompiler( assetsDir, new HashMap<String,String>() );
+        Map<String,Object> config = (Map<String,Object>)compiler.compile("configuration.json").getDocument("app:/configuration.json");
+        // Scheme handler and typed property configurations are normalized.
+        Map<String,Object> scheme = (Map<String,Object>)((Map<String,Object>)config.get("schemes")).get("s");
+        assertEquals( 1L, scheme.get("a") );
+        Map<String,Object> named = (Map<String,Object>)((Map<String,Object>)config.get("named")).get("n");
+        Map<String,Object> property = (Map<String,Object>)named.get("p");
+        assertEquals( 1L, property.get("a") );
+        assertFalse( property.containsKey("semo:config") );
+        // Named object configurations and other data aren't.
+        assertTrue( named.containsKey("semo:config") );
+        assertFalse( named.containsKey("a") );
+        assertTrue( ((Map<String,Object>)config.get("data")).containsKey("semo:config") );
+        assertEquals( 2, compiler.getNormalizedCount() );
+    }
+
+    public void testInvalidSnapshots() {
+        byte[][] invalid = new byte[][]{
+            new byte[0],
+            new byte[]{ 'J', 'S', 'O', 'N', 0, 0, 0, 1 },
+            new byte[]{ 'S', 'E', 'M', 'O', 0, 0, 0, 99 },
+            new byte[]{ 'S', 'E', 'M', 'O', 0, 0, 0, 1, 0x7F, 0, 0, 0 }
+        };
+        for( byte[] data : invalid ) {
+            try {
+                ConfigurationSnapshot.read( ByteBuffer.wrap( data ) );
+                fail("Expected IOException");
+            }
+            catch(IOException e) {}
+        }
+    }
+}
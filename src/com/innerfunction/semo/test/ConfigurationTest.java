@@ -0,0 +1,146 @@
+package com.innerfunction.semo.test;
+
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.json.simple.JSONValue;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.semo.Configuration;
+import com.innerfunction.semo.ConfigurationStats;
+import com.innerfunction.uri.CompoundURI;
+import com.innerfunction.uri.Resource;
+
+public class ConfigurationTest extends AndroidTestCase {
+
+    private Configuration newConfiguration(String json) throws URISyntaxException {
+        Resource parent = new Resource( getContext(), null ) {};
+        Resource resource = new Resource( getContext(), JSONValue.parse( json ), new CompoundURI("app:/test.json"), parent );
+        return new Configuration( resource, getContext() );
+    }
+
+    public void testFreeze() throws URISyntaxException {
+        Configuration config = newConfiguration("{\"a\":\"x\",\"b\":{\"c\":\"#a\"}}");
+        Configuration frozen = config.freeze();
+        assertTrue( frozen.isFrozen() );
+        assertFalse( config.isFrozen() );
+        assertSame( frozen, config.freeze() );
+        assertSame( frozen, frozen.freeze() );
+        assertEquals("x", frozen.getValueAsString("a") );
+        Configuration b = frozen.getValueAsConfiguration("b");
+        assertTrue( b.isFrozen() );
+        assertEquals("x", b.getValueAsString("c") );
+        try {
+            frozen.modify("a", "y");
+            fail("Expected UnsupportedOperationException");
+        }
+        catch(UnsupportedOperationException e) {}
+        // Modifying the original doesn't affect the frozen copy.
+        config.modify("a", "y");
+        assertEquals("y", config.getValueAsString("a") );
+        assertEquals("x", frozen.getValueAsString("a") );
+        assertNotSame( frozen, config.freeze() );
+    }
+
+    public void testPathReferences() throws URISyntaxException {
+        Configuration config = newConfiguration("{\"a\":\"#b\",\"b\":\"#c\",\"c\":\"#a\",\"d\":\"#e\",\"e\":\"x\",\"f\":\"#none\"}");
+        // References in a cycle resolve to nothing, rather than to a reference string.
+        assertNull( config.getValue("a") );
+        assertNull( config.getValue("c") );
+        assertNull( config.getValueAsString("b") );
+        // Other references resolve normally.
+        assertEquals("x", config.getValueAsString("d") );
+        assertEquals("#none", config.getValueAsString("f") );
+    }
+
+    public void testConcurrentReads() throws Exception {
+        StringBuilder json = new StringBuilder("{\"base\":\"v\"");
+        for( int i = 0; i < 100; i++ ) {
+            json.append(",\"p").append( i ).append("\":{\"value\":\"#base\",\"n\":").append( i ).append("}");
+        }
+        json.append("}");
+        Configuration config = newConfiguration( json.toString() );
+        config.setCacheValues( true );
+        final Configuration frozen = config.freeze();
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for( int t = 0; t < 8; t++ ) {
+            tasks.add( new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    for( int i = 0; i < 100; i++ ) {
+                        Configuration item = frozen.getValueAsConfiguration("p"+i );
+                        if( !"v".equals( item.getValueAsString("value") ) || item.getValueAsNumber("n").intValue() != i ) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            });
+        }
+        try {
+            for( Future<Boolean> result : executor.invokeAll( tasks ) ) {
+                assertTrue( result.get() );
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testPlatformKeys() throws URISyntaxException {
+        Configuration config = newConfiguration("{\"and:class\":\"x.Y\",\"semo:type\":\"t\",\"ios:color\":\"red\","
+            +"\"and:color\":\"blue\",\"color\":\"green\",\"size\":1,\"and:only\":\"a\"}");
+        List<String> names = config.getValueNames();
+        Collections.sort( names );
+        assertEquals( Arrays.asList("color", "only", "size"), names );
+        assertEquals("blue", config.getValueAsString("color") );
+        assertEquals("blue", config.getValueAsString("and:color") );
+        assertNull( config.getValueAsString("ios:color") );
+        assertEquals("t", config.getValueAsString("semo:type") );
+        assertEquals("x.Y", config.getValueAsString("and:class") );
+        assertTrue( config.hasValue("and:class") );
+        assertTrue( config.hasValue("and:only") );
+        // Meta values are kept when configurations are normalized.
+        config = newConfiguration("{\"base\":{\"a\":1,\"semo:type\":\"t\"},\"obj\":{\"semo:extends\":\"#base\",\"and:b\":2}}");
+        Configuration obj = config.getValueAsConfiguration("obj").normalize();
+        assertEquals( 1, obj.getValueAsNumber("a").intValue() );
+        assertEquals( 2, obj.getValueAsNumber("b").intValue() );
+        assertEquals("t", obj.getValueAsString("semo:type") );
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testStats() throws URISyntaxException {
+        Configuration config = newConfiguration("{\"a\":\"x\",\"b\":\"#a\",\"c\":\"{$p}-y\",\"$p\":\"z\"}");
+        ConfigurationStats.reset();
+        config.getValueAsString("b");
+        assertTrue( ConfigurationStats.getReportData( 10 ).isEmpty() );
+        ConfigurationStats.setEnabled( true );
+        try {
+            assertEquals("x", config.getValueAsString("b") );
+            assertEquals("z-y", config.getValueAsString("c") );
+            assertEquals("z-y", config.getValueAsString("c") );
+        }
+        finally {
+            ConfigurationStats.setEnabled( false );
+        }
+        Map<String,Object> report = ConfigurationStats.getReportData( 10 );
+        Map<String,Object> values = (Map<String,Object>)report.get( ConfigurationStats.ValueResolution );
+        assertEquals( 2L, ((Map<String,Object>)values.get("c string")).get("count") );
+        Map<String,Object> paths = (Map<String,Object>)report.get( ConfigurationStats.PathReference );
+        assertEquals( 1L, ((Map<String,Object>)paths.get("a string")).get("count") );
+        Map<String,Object> templates = (Map<String,Object>)report.get( ConfigurationStats.TemplateRender );
+        assertEquals( 2L, ((Map<String,Object>)templates.get("{$p}-y")).get("count") );
+        assertNotNull( JSONValue.parse( ConfigurationStats.getReport( 10 ) ) );
+        ConfigurationStats.reset();
+    }
+}
@@ -0,0 +1,239 @@
+package com.innerfunction.semo.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.semo.Configuration;
+import com.innerfunction.semo.Container;
+import com.innerfunction.semo.Service;
+import com.innerfunction.uri.CompoundURI;
+import com.innerfunction.uri.FileResource;
+import com.innerfunction.uri.Resource;
+import com.innerfunction.uri.URIResolver;
+
+public class ContainerTest extends AndroidTestCase {
+
+    public static class TestService extends Thing implements Service {
+        int starts, stops;
+        @Override
+        public void startService() {
+            starts++;
+        }
+        @Override
+        public void stopService() {
+            stops++;
+        }
+    }
+
+    public static class Settings {
+        int count = 5;
+        boolean enabled = true;
+        double ratio = 1.0;
+        public void setCount(int count) {
+            this.count = count;
+        }
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+        public void setRatio(double ratio) {
+            this.ratio = ratio;
+        }
+    }
+
+    Container container;
+    Resource root;
+
+    public void setUp() {
+        container = new Container();
+        // A resolver for named: URIs.
+        URIResolver resolver = new URIResolver() {
+            @Override
+            public Resource dereference(String uri) {
+                return dereference( uri, null );
+            }
+            @Override
+            public Resource dereference(String uri, Resource context) {
+                try {
+                    return dereference( new CompoundURI( uri ), context );
+                }
+                catch(URISyntaxException e) {
+                    return null;
+                }
+            }
+            @Override
+            public Resource dereference(CompoundURI uri) {
+                return dereference( uri, null );
+            }
+            @Override
+            public Resource dereference(CompoundURI uri, Resource context) {
+                if("file".equals( uri.getScheme() ) ) {
+                    return new FileResource( getContext(), new File( uri.getName() ), uri, root );
+                }
+                if("new".equals( uri.getScheme() ) ) {
+                    return new Resource( getContext(), new Thing(), uri, root );
+                }
+                Object object = container.getNamed( uri.getName() );
+                return object == null ? null : new Resource( getContext(), object, uri, root );
+            }
+        };
+        root = new Resource( getContext(), resolver ) {};
+    }
+
+    private Configuration newConfiguration(String json) throws URISyntaxException {
+        json = json.replace("Thing", Thing.class.getName() )
+                   .replace("Plant", Plant.class.getName() )
+                   .replace("Service", TestService.class.getName() );
+        Resource resource = new Resource( getContext(), JSONValue.parse( json ), new CompoundURI("app:/test.json"), root );
+        return new Configuration( resource, getContext() );
+    }
+
+    public void testReconfigure() throws URISyntaxException {
+        container.configure( newConfiguration("{\"named\":{"
+            +"\"a\":{\"and:class\":\"Thing\",\"name\":\"A\"},"
+            +"\"b\":{\"and:class\":\"Plant\",\"contains\":[\"@named:a\"]},"
+            +"\"c\":{\"and:class\":\"Thing\",\"name\":\"C\"},"
+            +"\"s\":{\"and:class\":\"Service\",\"name\":\"S\"}}}") );
+        container.startService();
+        Object a = container.getNamed("a");
+        Plant b = (Plant)container.getNamed("b");
+        Object c = container.getNamed("c");
+        TestService s = (TestService)container.getNamed("s");
+        assertSame( a, b.getContains().get( 0 ) );
+        assertEquals( 1, s.starts );
+
+        // Change a; b depends on a, and should also be rebuilt. c is removed, d is added.
+        container.reconfigure( newConfiguration("{\"named\":{"
+            +"\"a\":{\"and:class\":\"Thing\",\"name\":\"A2\"},"
+            +"\"b\":{\"and:class\":\"Plant\",\"contains\":[\"@named:a\"]},"
+            +"\"d\":{\"and:class\":\"Thing\",\"name\":\"D\"},"
+            +"\"s\":{\"and:class\":\"Service\",\"name\":\"S\"}}}") );
+        Thing a2 = (Thing)container.getNamed("a");
+        Plant b2 = (Plant)container.getNamed("b");
+        assertNotSame( a, a2 );
+        assertEquals("A2", a2.getName() );
+        assertNotSame( b, b2 );
+        assertSame( a2, b2.getContains().get( 0 ) );
+        assertNull( container.getNamed("c") );
+        assertEquals("D", ((Thing)container.getNamed("d")).getName() );
+        // The unchanged service is left running.
+        assertSame( s, container.getNamed("s") );
+        assertEquals( 1, s.starts );
+        assertEquals( 0, s.stops );
+
+        // Changing the service restarts it.
+        container.reconfigure( newConfiguration("{\"named\":{"
+            +"\"a\":{\"and:class\":\"Thing\",\"name\":\"A2\"},"
+            +"\"s\":{\"and:class\":\"Service\",\"name\":\"S2\"}}}") );
+        assertSame( a2, container.getNamed("a") );
+        TestService s2 = (TestService)container.getNamed("s");
+        assertEquals( 1, s.stops );
+        assertEquals( 1, s2.starts );
+        assertEquals("S2", s2.getName() );
+    }
+
+    @SuppressWarnings("unchecked")
+    private Configuration newConfiguration(String json, Object contained) throws URISyntaxException {
+        Map<String,Object> data = (Map<String,Object>)JSONValue.parse( json.replace("Plant", Plant.class.getName() ) );
+        Map<String,Object> named = (Map<String,Object>)data.get("named");
+        ((Map<String,Object>)named.get("p")).put("contains", Arrays.asList( contained ) );
+        Resource resource = new Resource( getContext(), data, new CompoundURI("app:/test.json"), root );
+        return new Configuration( resource, getContext() );
+    }
+
+    public void testReconfigureUnnamedObjects() throws URISyntaxException {
+        String json = "{\"named\":{\"p\":{\"and:class\":\"Plant\"}}}";
+        Thing thing1 = new Thing(), thing2 = new Thing();
+        container.configure( newConfiguration( json, thing1 ) );
+        Object p = container.getNamed("p");
+        // A different object of the same class is a change.
+        container.reconfigure( newConfiguration( json, thing2 ) );
+        Object p2 = container.getNamed("p");
+        assertNotSame( p, p2 );
+        // The same object isn't.
+        container.reconfigure( newConfiguration( json, thing2 ) );
+        assertSame( p2, container.getNamed("p") );
+    }
+
+    private void writeFile(File file, String content) throws IOException {
+        FileWriter writer = new FileWriter( file );
+        try {
+            writer.write( content );
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    public void testReconfigureResources() throws URISyntaxException, IOException {
+        File file = File.createTempFile("semo", ".txt");
+        try {
+            writeFile( file, "v1");
+            String json = "{\"named\":{"
+                +"\"f\":{\"and:class\":\"Thing\",\"name\":\"@file:"+file.getPath()+"\"},"
+                +"\"p\":{\"and:class\":\"Plant\",\"contains\":[\"@new:thing\"]}}}";
+            container.configure( newConfiguration( json ) );
+            Thing f = (Thing)container.getNamed("f");
+            Object p = container.getNamed("p");
+            // Changing a referenced file rebuilds the objects configured from it. URIs which dereference
+            // to a new object each time are compared by URI, so aren't a change.
+            writeFile( file, "v2 - updated");
+            container.reconfigure( newConfiguration( json ) );
+            Thing f2 = (Thing)container.getNamed("f");
+            assertNotSame( f, f2 );
+            assertSame( p, container.getNamed("p") );
+            // Unchanged files don't.
+            container.reconfigure( newConfiguration( json ) );
+            assertSame( f2, container.getNamed("f") );
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testPrimitiveProperties() throws URISyntaxException {
+        // Values which can't be converted leave the object's defaults unchanged.
+        Settings settings = new Settings();
+        container.configureObject( settings, newConfiguration("{\"count\":\"abc\",\"enabled\":\"nope\",\"ratio\":2.5}"), "settings");
+        assertEquals( 5, settings.count );
+        assertTrue( settings.enabled );
+        assertEquals( 2.5, settings.ratio );
+        // Resource values are converted using their representations.
+        Map<String,Object> data = (Map<String,Object>)JSONValue.parse("{\"enabled\":0}");
+        data.put("count", new Resource( getContext(), 7L, new CompoundURI("app:/count"), root ) );
+        Configuration config = new Configuration( new Resource( getContext(), data, new CompoundURI("app:/test.json"), root ), getContext() );
+        assertEquals( 7, config.getInt("count", 0 ) );
+        container.configureObject( settings, config, "settings");
+        assertEquals( 7, settings.count );
+        assertFalse( settings.enabled );
+    }
+
+    public void testTypeIndex() throws URISyntaxException {
+        container.setTypes( newConfiguration("{\"thing\":\"Thing\",\"plant\":\"Plant\"}") );
+        container.configure( newConfiguration("{\"named\":{"
+            +"\"a\":{\"semo:type\":\"thing\"},"
+            +"\"b\":{\"semo:type\":\"plant\"},"
+            +"\"c\":{\"and:class\":\"Thing\"}}}") );
+        assertEquals( 3, container.getNamedOfType( Thing.class ).size() );
+        List<Plant> plants = container.getNamedOfType( Plant.class );
+        assertEquals( 1, plants.size() );
+        assertSame( container.getNamed("b"), plants.get( 0 ) );
+        assertEquals( Arrays.asList("a"), container.getNamesForType("thing") );
+        assertTrue( container.getNamesForType("animal").isEmpty() );
+        // The index is updated when the container is reconfigured.
+        container.reconfigure( newConfiguration("{\"named\":{"
+            +"\"b\":{\"semo:type\":\"plant\"},"
+            +"\"c\":{\"and:class\":\"Thing\"}}}") );
+        assertTrue( container.getNamesForType("thing").isEmpty() );
+        assertEquals( 2, container.getNamedOfType( Thing.class ).size() );
+    }
+}
@@ -0,0 +1,382 @@
+package com.innerfunction.semo.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import com.innerfunction.semo.ConfigurationSnapshot;
+
+/**
+ * A build-time configuration compiler.
+ * Reads an app's configuration file, and the JSON configuration files it references using absolute
+ * app: URIs (e.g. "@app:/types.json"), and writes a snapshot of their parsed data to a file in the
+ * app's assets; see ConfigurationSnapshot. The app container will then load the configuration from the
+ * snapshot instead of parsing the original files, for as long as the source files are unchanged.
+ * Object configurations are also normalized where possible: semo:config properties are flattened into
+ * their containing configuration, and semo:extends properties referencing another configuration through
+ * a literal app: URI, a # path reference within the same file, or an inline object, are merged with the
+ * extended configuration. References which depend on runtime values are left to be resolved at runtime.
+ * Only the configurations which the container normalizes when building objects are normalized (see
+ * Container.buildObject()): configurations with a semo:type or and:class property, and the scheme handler
+ * configurations under the app configuration's schemes property. Named object configurations, and any
+ * other data which happens to contain semo:config or semo:extends properties, are left unchanged.
+ * URI references containing templates are only followed if all of the template's values are provided
+ * on the command line, e.g. -Dplatform.name=and.
+ *
+ * Usage: ConfigurationCompiler [-Dname=value ...] <assets dir> [source file] [output file]
+ *
+ * The source file defaults to configuration.json. The output file defaults to the source file name
+ * with a .snapshot extension, in the assets dir.
+ * @author juliangoacher
+ *
+ */
+public class ConfigurationCompiler {
+
+    static final String AppURIPrefix = "app:/";
+
+    /** Regex pattern for matching var references within a template string. */
+    static final Pattern TemplateRefPattern = Pattern.compile("[{]([-a-zA-Z0-9_$.]+)[}]");
+
+    /** The app's assets directory. */
+    private File assetsDir;
+    /** Template values available at build time, keyed by full reference, e.g. "platform.name". */
+    private Map<String,String> globals;
+    /** The parsed source documents, keyed by app: URI. The root configuration is the first document. */
+    private Map<String,Object> documents = new LinkedHashMap<String,Object>();
+    /** The hash of each source document, keyed by app: URI. */
+    private Map<String,Long> hashes = new HashMap<String,Long>();
+    /** The number of configurations normalized. */
+    private int normalizedCount;
+    /**
+     * Values whose normalization is determined by their position in the app configuration, rather than by
+     * their content; e.g. scheme handler configurations are always normalized, and named object
+     * configurations never are. Keyed by value identity.
+     */
+    private Map<Object,Boolean> normalizable = new IdentityHashMap<Object,Boolean>();
+
+    public ConfigurationCompiler(File assetsDir, Map<String,String> globals) {
+        this.assetsDir = assetsDir;
+        this.globals = globals;
+    }
+
+    /**
+     * Compile a configuration.
+     * @param source The configuration file name, relative to the assets dir.
+     */
+    public ConfigurationSnapshot compile(String source) throws IOException, ParseException {
+        if( source.startsWith("/") ) {
+            source = source.substring( 1 );
+        }
+        loadDocument( AppURIPrefix+source );
+        Object appConfig = documents.get( AppURIPrefix+source );
+        if( appConfig instanceof Map ) {
+            Map<?,?> appConfigMap = (Map<?,?>)appConfig;
+            Object named = appConfigMap.get("named");
+            if( named == null ) {
+                named = appConfigMap.get("names");
+            }
+            addNormalizable( named, false );
+            addNormalizable( appConfigMap.get("schemes"), true );
+        }
+        ConfigurationSnapshot snapshot = new ConfigurationSnapshot();
+        for( String uri : documents.keySet() ) {
+            Object root = documents.get( uri );
+            Object data = normalizeValue( root, root, false );
+            snapshot.addDocument( uri, data, hashes.get( uri ) );
+        }
+        return snapshot;
+    }
+
+    /** Get the number of configurations normalized by the compiler. */
+    public int getNormalizedCount() {
+        return normalizedCount;
+    }
+
+    /** Load and parse a document, and then any documents it references. */
+    private void loadDocument(String uri) throws IOException, ParseException {
+        if( documents.containsKey( uri ) ) {
+            return;
+        }
+        File file = new File( assetsDir, uri.substring( AppURIPrefix.length() ) );
+        if( !file.exists() ) {
+            System.err.printf("Warning: %s not found, will be resolved at runtime\n", uri );
+            return;
+        }
+        byte[] bytes = readFile( file );
+        Object data;
+        try {
+            data = JSONValue.parseWithException( new String( bytes, "UTF-8") );
+        }
+        catch(ParseException e) {
+            System.err.printf("Error: Parsing %s\n", uri );
+            throw e;
+        }
+        documents.put( uri, data );
+        hashes.put( uri, ConfigurationSnapshot.hash( bytes ) );
+        List<String> references = new ArrayList<String>();
+        findReferences( data, references );
+        for( String reference : references ) {
+            loadDocument( reference );
+        }
+    }
+
+    /** Find all JSON files referenced by a value. */
+    @SuppressWarnings("rawtypes")
+    private void findReferences(Object value, List<String> references) {
+        if( value instanceof String ) {
+            String uri = resolveAppURI( (String)value );
+            if( uri != null && uri.endsWith(".json") ) {
+                references.add( uri );
+            }
+        }
+        else if( value instanceof Map ) {
+            for( Object item : ((Map)value).values() ) {
+                findReferences( item, references );
+            }
+        }
+        else if( value instanceof List ) {
+            for( Object item : (List)value ) {
+                findReferences( item, references );
+            }
+        }
+    }
+
+    /**
+     * Resolve an @app: URI reference at build time.
+     * @return The referenced URI; or null if the value isn't an absolute app: URI reference without
+     * parameters or a fragment, or if it is a template whose values aren't all known at build time.
+     */
+    private String resolveAppURI(String value) {
+        if( !value.startsWith("@"+AppURIPrefix ) ) {
+            return null;
+        }
+        String uri = value.substring( 1 );
+        if( uri.indexOf('{') > -1 ) {
+            StringBuffer sb = new StringBuffer();
+            Matcher m = TemplateRefPattern.matcher( uri );
+            while( m.find() ) {
+                String replacement = globals.get( m.group( 1 ) );
+                if( replacement == null ) {
+                    return null;
+                }
+                m.appendReplacement( sb, Matcher.quoteReplacement( replacement ) );
+            }
+            m.appendTail( sb );
+            uri = sb.toString();
+        }
+        if( uri.indexOf('+') > -1 || uri.indexOf('#') > -1 || uri.indexOf('[') > -1 || uri.indexOf('{') > -1 ) {
+            return null;
+        }
+        return uri;
+    }
+
+    /**
+     * Record whether the configurations in a map of object configurations should be normalized.
+     * @param configs   A map of configurations, or an app: URI reference to a document containing the map.
+     */
+    private void addNormalizable(Object configs, boolean normalize) {
+        if( configs instanceof String ) {
+            String uri = resolveAppURI( (String)configs );
+            configs = uri != null && ((String)configs).indexOf('{') == -1 ? documents.get( uri ) : null;
+        }
+        if( configs instanceof Map ) {
+            for( Object config : ((Map<?,?>)configs).values() ) {
+                if( config instanceof Map ) {
+                    normalizable.put( config, normalize );
+                }
+            }
+        }
+    }
+
+    /**
+     * Test whether a value is a configuration which the container normalizes when building an object.
+     * The container only normalizes typed configurations, except for scheme handler configurations.
+     */
+    private boolean isNormalizable(Object value) {
+        Boolean normalize = normalizable.get( value );
+        if( normalize != null ) {
+            return normalize;
+        }
+        if( value instanceof Map ) {
+            Map<?,?> map = (Map<?,?>)value;
+            return map.containsKey("semo:type") || map.containsKey("and:class");
+        }
+        return false;
+    }
+
+    /**
+     * Normalize all object configurations within a value.
+     * Returns a normalized copy of the value; the original value is unmodified.
+     * @param value     The value to normalize.
+     * @param root      The root of the document containing the value. Used to resolve # path references.
+     * @param normalize If true then the value itself is normalized; otherwise only its contents are.
+     */
+    @SuppressWarnings("unchecked")
+    private Object normalizeValue(Object value, Object root, boolean normalize) {
+        if( value instanceof Map ) {
+            Map<String,Object> map = (Map<String,Object>)value;
+            if( normalize ) {
+                map = normalizeConfiguration( map, root, new IdentityHashMap<Object,Object>() );
+            }
+            Map<String,Object> result = new HashMap<String,Object>();
+            for( Map.Entry<String,Object> entry : map.entrySet() ) {
+                Object item = entry.getValue();
+                result.put( entry.getKey(), normalizeValue( item, root, isNormalizable( item ) ) );
+            }
+            return result;
+        }
+        if( value instanceof List ) {
+            List<Object> result = new ArrayList<Object>();
+            for( Object item : (List<Object>)value ) {
+                result.add( normalizeValue( item, root, isNormalizable( item ) ) );
+            }
+            return result;
+        }
+        return value;
+    }
+
+    /**
+     * Normalize a configuration, in the same way as Configuration.normalize().
+     * @param config    The configuration data.
+     * @param root      The root of the document containing the configuration.
+     * @param visited   The set of extended configurations already visited; used to detect dependency loops.
+     * @return The normalized configuration data. This is the original data if no normalization was possible.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String,Object> normalizeConfiguration(Map<String,Object> config, Object root, Map<Object,Object> visited) {
+        Map<String,Object> result = config;
+        // Flatten the configuration.
+        Object flatten = config.get("semo:config");
+        if( flatten instanceof Map ) {
+            result = new HashMap<String,Object>( config );
+            result.putAll( (Map<String,Object>)flatten );
+            result.remove("semo:config");
+            normalizedCount++;
+        }
+        // Resolve the extended configuration.
+        Object base = result.get("semo:extends");
+        Object baseRoot = root;
+        if( base instanceof String ) {
+            String sbase = (String)base;
+            if( sbase.startsWith("#") ) {
+                base = resolvePathReference( sbase.substring( 1 ), root );
+            }
+            else {
+                String uri = resolveAppURI( sbase );
+                base = baseRoot = (uri != null && sbase.indexOf('{') == -1) ? documents.get( uri ) : null;
+            }
+        }
+        if( base instanceof Map && !visited.containsKey( base ) ) {
+            visited.put( base, base );
+            Map<String,Object> normalizedBase = normalizeConfiguration( (Map<String,Object>)base, baseRoot, visited );
+            // Only merge the base if its own extends chain was fully resolved.
+            if( !normalizedBase.containsKey("semo:extends") ) {
+                Map<String,Object> merged = new HashMap<String,Object>( normalizedBase );
+                merged.putAll( result );
+                merged.remove("semo:extends");
+                result = merged;
+                normalizedCount++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolve a # path reference within a document.
+     * @return The referenced value; or null if the path can't be resolved without runtime evaluation.
+     */
+    @SuppressWarnings("rawtypes")
+    private Object resolvePathReference(String path, Object root) {
+        Object value = root;
+        for( String name : path.split("\\.") ) {
+            if( value instanceof Map ) {
+                value = ((Map)value).get( name );
+            }
+            else if( value instanceof List && name.matches("\\d+") ) {
+                List list = (List)value;
+                int idx = Integer.parseInt( name );
+                value = idx < list.size() ? list.get( idx ) : null;
+            }
+            else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream( file );
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[16384];
+            int read;
+            while( (read = in.read( buffer )) != -1 ) {
+                out.write( buffer, 0, read );
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public static void main(String[] args) {
+        Map<String,String> globals = new HashMap<String,String>();
+        List<String> params = new ArrayList<String>();
+        for( String arg : args ) {
+            if( arg.startsWith("-D") && arg.indexOf('=') > 2 ) {
+                int idx = arg.indexOf('=');
+                globals.put( arg.substring( 2, idx ), arg.substring( idx + 1 ) );
+            }
+            else {
+                params.add( arg );
+            }
+        }
+        if( params.size() < 1 || params.size() > 3 ) {
+            System.err.println("Usage: ConfigurationCompiler [-Dname=value ...] <assets dir> [source file] [output file]");
+            System.exit( 1 );
+        }
+        File assetsDir = new File( params.get( 0 ) );
+        String source = params.size() > 1 ? params.get( 1 ) : "configuration.json";
+        File output;
+        if( params.size() > 2 ) {
+            output = new File( params.get( 2 ) );
+        }
+        else {
+            int idx = source.lastIndexOf('.');
+            output = new File( assetsDir, (idx > 0 ? source.substring( 0, idx ) : source)+".snapshot");
+        }
+        try {
+            ConfigurationCompiler compiler = new ConfigurationCompiler( assetsDir, globals );
+            ConfigurationSnapshot snapshot = compiler.compile( source );
+            OutputStream out = new FileOutputStream( output );
+            try {
+                snapshot.write( out );
+            }
+            finally {
+                out.close();
+            }
+            System.out.printf("Wrote %s: %d documents, %d configurations normalized, %d bytes\n",
+                output, snapshot.getDocuments().size(), compiler.getNormalizedCount(), output.length() );
+        }
+        catch(Exception e) {
+            System.err.printf("Error: %s\n", e );
+            System.exit( 1 );
+        }
+    }
+}
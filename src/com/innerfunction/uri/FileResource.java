@@ -73,6 +73,11 @@ public class FileResource extends Resource {
         return conversions.asJSONData( asString() );
     }
     
+    /** Return the file's contents as lazily parsed JSON data. */
+    public Object asLazyJSONData() {
+        return conversions.asLazyJSONData( asString() );
+    }
+    
     /** Return the contents of the file resource as an image. */
     public Drawable asImage() {
         return Drawable.createFromPath( this.file.getAbsolutePath() );
@@ -1,16 +1,22 @@
 package com.innerfunction.uri;
 
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import com.innerfunction.util.FileIO;
 import com.innerfunction.util.Paths;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.util.Log;
 
@@ -30,6 +36,34 @@ public class IFAssetManager {
         return this.assetManager.open( name );
     }
 
+    /**
+     * Map an asset into memory.
+     * Uncompressed assets are memory mapped directly from the app package. Compressed assets can't be
+     * mapped, and are instead read into a buffer.
+     */
+    public ByteBuffer mapAsset(String name) throws IOException {
+        try {
+            AssetFileDescriptor fd = this.assetManager.openFd( name );
+            try {
+                FileChannel channel = new FileInputStream( fd.getFileDescriptor() ).getChannel();
+                try {
+                    return channel.map( FileChannel.MapMode.READ_ONLY, fd.getStartOffset(), fd.getLength() );
+                }
+                finally {
+                    // The mapping remains valid after the channel is closed.
+                    channel.close();
+                }
+            }
+            finally {
+                fd.close();
+            }
+        }
+        catch(FileNotFoundException e) {
+            // Thrown by openFd() when the asset is compressed.
+            return ByteBuffer.wrap( FileIO.readData( openInputStream( name ), name ) );
+        }
+    }
+
     public boolean assetExists(String assetName) {
         // Note: following necessary to detect whether the referenced asset exists. This
         // is so as to be consistent in behaviour with the file based URI schemes, which
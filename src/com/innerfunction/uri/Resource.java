@@ -99,6 +99,14 @@ public class Resource implements URIResolver {
         return conversions.asJSONData( this.item );
     }
 
+    /**
+     * Return the resource as lazily parsed JSON data.
+     * See TypeConversions.asLazyJSONData().
+     */
+    public Object asLazyJSONData() {
+        return conversions.asLazyJSONData( this.item );
+    }
+
     public URI asURL() {
         return conversions.asURL( this.item );
     }
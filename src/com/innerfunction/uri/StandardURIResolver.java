@@ -45,6 +45,7 @@ public class StandardURIResolver implements URIResolver {
     /** Initialize the URI resolver before use. */
     public void initialize(Context context, Resource parent, IFAssetManager assetManager) {
         this.parentResource = parent;
+        this.assetManager = assetManager;
         this.schemeHandlers.put("s", new StringSchemeHandler( context ) );
         this.schemeHandlers.put("app", new AnRBasedSchemeHandler( context, assetManager ) );
         this.schemeHandlers.put("cache", new FileBasedSchemeHandler( context, FileIO.getCacheDir( context )));
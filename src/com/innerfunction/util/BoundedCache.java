@@ -0,0 +1,103 @@
+package com.innerfunction.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread safe, size bounded cache.
+ * Entries are evicted in least-recently-used order once the cache reaches its maximum size.
+ * Caches can alternatively be bounded by the total weight of their entries, as calculated by a
+ * Weigher; entries are then evicted once the total weight exceeds the cache's maximum weight, and
+ * values heavier than the maximum weight aren't cached.
+ * @author juliangoacher
+ *
+ */
+public class BoundedCache<K,V> {
+
+    /** Calculates the weight of a cache entry. */
+    public interface Weigher<K,V> {
+        int weigh(K key, V value);
+    }
+
+    /** The cached entries, in access order. */
+    private LinkedHashMap<K,V> entries;
+    /** The entry weigher; or null if the cache is bounded by size. */
+    private Weigher<K,V> weigher;
+    /** The maximum total weight of the cache's entries. */
+    private long maxWeight;
+    /** The current total weight of the cache's entries. */
+    private long weight;
+
+    public BoundedCache(final int maxSize) {
+        this.entries = new LinkedHashMap<K,V>( 16, 0.75f, true ) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /** Create a cache bounded by the total weight of its entries. */
+    public BoundedCache(long maxWeight, Weigher<K,V> weigher) {
+        this( Integer.MAX_VALUE );
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    /** Get a cached value, or null if no value is cached under the specified key. */
+    public synchronized V get(K key) {
+        return entries.get( key );
+    }
+
+    /** Add a value to the cache. */
+    public synchronized void put(K key, V value) {
+        if( weigher == null ) {
+            entries.put( key, value );
+            return;
+        }
+        int valueWeight = weigher.weigh( key, value );
+        if( valueWeight > maxWeight ) {
+            remove( key );
+            return;
+        }
+        V previous = entries.put( key, value );
+        weight += valueWeight;
+        if( previous != null ) {
+            weight -= weigher.weigh( key, previous );
+        }
+        // Evict least recently used entries; the new entry is the most recently used, so is evicted last.
+        Iterator<Map.Entry<K,V>> it = entries.entrySet().iterator();
+        while( weight > maxWeight && it.hasNext() ) {
+            Map.Entry<K,V> entry = it.next();
+            weight -= weigher.weigh( entry.getKey(), entry.getValue() );
+            it.remove();
+        }
+    }
+
+    /** Remove a value from the cache. */
+    public synchronized V remove(K key) {
+        V value = entries.remove( key );
+        if( value != null && weigher != null ) {
+            weight -= weigher.weigh( key, value );
+        }
+        return value;
+    }
+
+    /** Remove all values from the cache. */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /** Return the number of cached values. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Return the total weight of the cached values; or 0 if the cache is bounded by size. */
+    public synchronized long weight() {
+        return weight;
+    }
+}
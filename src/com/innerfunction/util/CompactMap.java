@@ -0,0 +1,111 @@
+package com.innerfunction.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, read-only map for small sets of keys.
+ * Keys and values are stored in a pair of arrays, and keys are found using a linear search. For maps with
+ * only a few entries this is both smaller than a HashMap and comparably fast - particularly when keys are
+ * interned, as the identity check on each key will usually succeed before an equals() call is needed.
+ * @author juliangoacher
+ *
+ */
+public class CompactMap<K,V> extends AbstractMap<K,V> {
+
+    /** The maximum number of entries recommended for a compact map. */
+    public static final int MaxSize = 8;
+
+    private final Object[] keys;
+    private final Object[] values;
+
+    /** Create a compact map with the same entries as the specified map. */
+    public CompactMap(Map<? extends K,? extends V> map) {
+        int size = map.size();
+        this.keys = new Object[size];
+        this.values = new Object[size];
+        int i = 0;
+        for( Map.Entry<? extends K,? extends V> entry : map.entrySet() ) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            i++;
+        }
+    }
+
+    /** Create a compact map from arrays of keys and values. The arrays are not copied. */
+    public CompactMap(Object[] keys, Object[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    private int indexOf(Object key) {
+        for( int i = 0; i < keys.length; i++ ) {
+            if( keys[i] == key ) {
+                return i;
+            }
+        }
+        if( key != null ) {
+            for( int i = 0; i < keys.length; i++ ) {
+                if( key.equals( keys[i] ) ) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        int i = indexOf( key );
+        return i > -1 ? (V)values[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf( key ) > -1;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new Iterator<Map.Entry<K,V>>() {
+                    int i = 0;
+                    @Override
+                    public boolean hasNext() {
+                        return i < keys.length;
+                    }
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public Map.Entry<K,V> next() {
+                        if( i >= keys.length ) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<K,V> entry = new AbstractMap.SimpleImmutableEntry<K,V>( (K)keys[i], (V)values[i] );
+                        i++;
+                        return entry;
+                    }
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+package com.innerfunction.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe, size capped cache for read-mostly data.
+ * Unlike BoundedCache, reads don't take a lock or reorder entries, so many threads can read the cache
+ * at the same time. The cost is a less precise eviction policy: once the cache grows beyond its maximum
+ * size, arbitrary entries are evicted until it is back down to three quarters of the maximum size.
+ * This suits caches of values which are cheap to recreate, e.g. parsed templates or compiled paths.
+ * @author juliangoacher
+ *
+ */
+public class ConcurrentCache<K,V> {
+
+    /** The cached entries. */
+    private final ConcurrentHashMap<K,V> entries = new ConcurrentHashMap<K,V>();
+    /** The number of cached entries; tracked separately as ConcurrentHashMap.size() is relatively costly. */
+    private final AtomicInteger size = new AtomicInteger();
+    /** The maximum number of cached entries. */
+    private final int maxSize;
+
+    public ConcurrentCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /** Get a cached value, or null if no value is cached under the specified key. */
+    public V get(K key) {
+        return entries.get( key );
+    }
+
+    /** Add a value to the cache. */
+    public void put(K key, V value) {
+        if( entries.put( key, value ) == null && size.incrementAndGet() > maxSize ) {
+            evict();
+        }
+    }
+
+    /** Remove a value from the cache. */
+    public V remove(K key) {
+        V value = entries.remove( key );
+        if( value != null ) {
+            size.decrementAndGet();
+        }
+        return value;
+    }
+
+    /** Remove all values from the cache. */
+    public void clear() {
+        for( K key : entries.keySet() ) {
+            remove( key );
+        }
+    }
+
+    /** Return the number of cached values. */
+    public int size() {
+        return size.get();
+    }
+
+    /** Evict entries until the cache is down to three quarters of its maximum size. */
+    private void evict() {
+        int targetSize = maxSize - maxSize / 4;
+        Iterator<Map.Entry<K,V>> it = entries.entrySet().iterator();
+        while( size.get() > targetSize && it.hasNext() ) {
+            Map.Entry<K,V> entry = it.next();
+            // Only count the removal if another thread hasn't already removed or replaced the entry.
+            if( entries.remove( entry.getKey(), entry.getValue() ) ) {
+                size.decrementAndGet();
+            }
+        }
+    }
+}
@@ -17,18 +17,27 @@ public abstract class JSONData {
      */
     public static class PropertyHandler {
         /** Resolve a named property against an object. */
-        @SuppressWarnings("rawtypes")
         public Object resolve(String name, Object object) {
+            return resolve( name, JSONPath.parseIndex( name ), object );
+        }
+        /**
+         * Resolve a named property against an object.
+         * @param name      The property name.
+         * @param index     The property name parsed as a list offset; or -1 if the name isn't a valid offset.
+         * @param object    The object to resolve the property against.
+         */
+        @SuppressWarnings("rawtypes")
+        public Object resolve(String name, int index, Object object) {
             if( object instanceof Map ) {
                 object = modify( name, ((Map)object).get( name ) );
             }
             else if( object instanceof List ) {
-                try {
-                    // Attempt to read the next value using 'name' as the list offset.
-                    int i = Integer.valueOf( name );
-                    object = modify( name, ((List)object).get( i ) );
+                // Attempt to read the next value using 'name' as the list offset.
+                List list = (List)object;
+                if( index > -1 && index < list.size() ) {
+                    object = modify( name, list.get( index ) );
                 }
-                catch(NumberFormatException e) {
+                else {
                     object = null;
                 }
             }
@@ -54,11 +63,20 @@ public abstract class JSONData {
      * Resolve a dotted path reference on the specified data.
      */
     public Object resolveJSONReference(String ref, Object data, PropertyHandler handler) {
+        return resolveJSONReference( JSONPath.compile( ref ), data, handler );
+    }
+
+    public Object resolveJSONReference(JSONPath path, Object data) {
+        return resolveJSONReference( path, data, DefaultPropertyHandler );
+    }
+
+    /**
+     * Resolve a compiled path reference on the specified data.
+     */
+    public Object resolveJSONReference(JSONPath path, Object data, PropertyHandler handler) {
         Object result = data;
-        String[] path = ref.split("\\.");
-        for( int i = 0; i < path.length && result != null; i++ ) {
-            String name = path[i];
-            result = handler.resolve( name, result );
+        for( int i = 0; i < path.length() && result != null; i++ ) {
+            result = handler.resolve( path.getName( i ), path.getIndex( i ), result );
         }
         return result;
     }
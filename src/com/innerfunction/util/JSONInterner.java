@@ -0,0 +1,180 @@
+package com.innerfunction.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A utility for reducing the memory footprint of parsed JSON data.
+ * Deduplicates the strings - both object keys and string values - in a parsed JSON tree, so that all
+ * equal strings share a single instance; and replaces small objects with compact map representations.
+ * The interner keeps a pool of the strings it has seen, so the same instance can be used to deduplicate
+ * several JSON documents against each other.
+ * Compacted JSON objects are read-only; JSON arrays are modified in place.
+ * Memory savings are estimated using typical object sizes on a 32-bit VM.
+ * @author juliangoacher
+ *
+ */
+public class JSONInterner {
+
+    /** Flag indicating whether small maps should be replaced with compact maps. */
+    private boolean compactMaps;
+    /** The string pool. */
+    private Map<String,String> strings = new HashMap<String,String>();
+    /** The number of duplicate strings replaced. */
+    private int duplicateStrings;
+    /** The number of maps replaced with compact maps. */
+    private int compactedMaps;
+    /** The estimated number of bytes saved. */
+    private long bytesSaved;
+
+    public JSONInterner() {
+        this( true );
+    }
+
+    /**
+     * Create a new interner.
+     * @param compactMaps If true then maps with up to CompactMap.MaxSize entries are replaced with
+     *                    compact maps; otherwise only strings are deduplicated.
+     */
+    public JSONInterner(boolean compactMaps) {
+        this.compactMaps = compactMaps;
+    }
+
+    /** Return the pooled instance of a string. */
+    public synchronized String intern(String s) {
+        String result = strings.get( s );
+        if( result == null ) {
+            strings.put( s, s );
+            result = s;
+        }
+        else if( result != s ) {
+            duplicateStrings++;
+            bytesSaved += estimateStringSize( s );
+        }
+        return result;
+    }
+
+    /**
+     * Deduplicate a parsed JSON value.
+     * @return The deduplicated value. Strings and maps are replaced with new instances; lists are updated
+     * in place and returned.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public Object deduplicate(Object value) {
+        if( value instanceof String ) {
+            return intern( (String)value );
+        }
+        if( value instanceof CompactMap ) {
+            return value;
+        }
+        if( value instanceof JSONTape.LazyValue ) {
+            // Lazily parsed data is deduplicated as it is decoded, rather than being decoded here.
+            JSONTape tape = ((JSONTape.LazyValue)value).getTape();
+            if( tape != null ) {
+                if( tape.getInterner() == null ) {
+                    tape.setInterner( this );
+                }
+                return value;
+            }
+            // The value has already been decoded, so is deduplicated in the same way as other data. List
+            // views are read-only, so the list's decoded items are deduplicated instead.
+            if( value instanceof JSONTape.LazyList ) {
+                return deduplicate( ((JSONTape.LazyList)value).getItems() );
+            }
+        }
+        if( value instanceof Map ) {
+            Map<Object,Object> map = (Map<Object,Object>)value;
+            int size = map.size();
+            Map<Object,Object> result;
+            if( compactMaps && size <= CompactMap.MaxSize ) {
+                Object[] keys = new Object[size], values = new Object[size];
+                int i = 0;
+                for( Map.Entry<Object,Object> entry : map.entrySet() ) {
+                    keys[i] = deduplicate( entry.getKey() );
+                    values[i] = deduplicate( entry.getValue() );
+                    i++;
+                }
+                result = new CompactMap<Object,Object>( keys, values );
+                synchronized( this ) {
+                    compactedMaps++;
+                    bytesSaved += estimateHashMapSize( size ) - estimateCompactMapSize( size );
+                }
+            }
+            else {
+                // Rebuild the map so that it uses the deduplicated key instances.
+                result = new HashMap<Object,Object>( size * 4 / 3 + 1 );
+                for( Map.Entry<Object,Object> entry : map.entrySet() ) {
+                    result.put( deduplicate( entry.getKey() ), deduplicate( entry.getValue() ) );
+                }
+            }
+            return result;
+        }
+        if( value instanceof NumericList && ((NumericList)value).isNumeric() ) {
+            // Numeric lists don't contain any strings.
+            return value;
+        }
+        if( value instanceof List ) {
+            List list = (List)value;
+            // Frozen lists (e.g. cached parse results, see TypeConversions) are copied before being modified.
+            boolean frozen = list instanceof NumericList && ((NumericList)list).isFrozen();
+            for( int i = 0; i < list.size(); i++ ) {
+                Object item = list.get( i );
+                Object ditem = deduplicate( item );
+                if( ditem != item ) {
+                    if( frozen ) {
+                        NumericList copy = new NumericList( list.size() );
+                        copy.addAll( list );
+                        list = copy;
+                        frozen = false;
+                    }
+                    list.set( i, ditem );
+                }
+            }
+            if( list != value ) {
+                ((NumericList)list).freeze();
+            }
+            return list;
+        }
+        return value;
+    }
+
+    /** Get the number of duplicate strings replaced. */
+    public synchronized int getDuplicateStrings() {
+        return duplicateStrings;
+    }
+
+    /** Get the number of maps replaced with compact maps. */
+    public synchronized int getCompactedMaps() {
+        return compactedMaps;
+    }
+
+    /** Get the estimated number of bytes saved. */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d duplicate strings, %d compacted maps, ~%d bytes saved", duplicateStrings, compactedMaps, bytesSaved );
+    }
+
+    /** Estimate the size of a string; object header, fields and char array. */
+    static long estimateStringSize(String s) {
+        return 24 + 16 + 2 * s.length();
+    }
+
+    /** Estimate the size of a HashMap; object, table and entries. */
+    static long estimateHashMapSize(int size) {
+        int capacity = 16;
+        while( capacity * 3 / 4 < size ) {
+            capacity *= 2;
+        }
+        return 48 + (16 + 4 * capacity) + 32 * size;
+    }
+
+    /** Estimate the size of a CompactMap; object and key and value arrays. */
+    static long estimateCompactMapSize(int size) {
+        return 16 + 2 * (16 + 4 * size);
+    }
+}
@@ -0,0 +1,115 @@
+package com.innerfunction.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compiled dotted path reference, e.g. "names.tree.contains.0".
+ * The path is split into its component names once, and any names which are valid list offsets are
+ * parsed to integers at the same time, so that resolving the path against JSON data doesn't require
+ * any further string processing.
+ * Compiled paths are immutable and are shared through a cache keyed by reference string; use the
+ * compile() method to obtain an instance.
+ * @author juliangoacher
+ *
+ */
+public class JSONPath {
+
+    /** The maximum number of compiled paths held in the cache. */
+    static final int MaxCachedPaths = 4096;
+    /** A cache of previously compiled paths, keyed by reference string. */
+    static final ConcurrentCache<String,JSONPath> Cache = new ConcurrentCache<String,JSONPath>( MaxCachedPaths );
+
+    /** The original reference string. */
+    private final String ref;
+    /** The path component names. */
+    private final String[] names;
+    /** Each path component name parsed as a list offset, or -1 if the name isn't a valid offset. */
+    private final int[] indexes;
+
+    private JSONPath(String ref) {
+        this.ref = ref;
+        this.names = split( ref );
+        this.indexes = new int[names.length];
+        for( int i = 0; i < names.length; i++ ) {
+            indexes[i] = parseIndex( names[i] );
+        }
+    }
+
+    /** Get the number of components in the path. */
+    public int length() {
+        return names.length;
+    }
+
+    /** Get the name of the path component at the specified position. */
+    public String getName(int i) {
+        return names[i];
+    }
+
+    /** Get the list offset of the path component at the specified position, or -1 if not a valid offset. */
+    public int getIndex(int i) {
+        return indexes[i];
+    }
+
+    @Override
+    public String toString() {
+        return ref;
+    }
+
+    /** Return a compiled path for the specified reference. */
+    public static JSONPath compile(String ref) {
+        JSONPath path = Cache.get( ref );
+        if( path == null ) {
+            path = new JSONPath( ref );
+            Cache.put( ref, path );
+        }
+        return path;
+    }
+
+    /**
+     * Parse a path component name as a list offset.
+     * @return The offset value, or -1 if the name isn't a non-negative integer.
+     */
+    public static int parseIndex(String name) {
+        int length = name.length();
+        // Names longer than 9 digits can overflow an int, so aren't treated as offsets.
+        if( length == 0 || length > 9 ) {
+            return -1;
+        }
+        int index = 0;
+        for( int i = 0; i < length; i++ ) {
+            char ch = name.charAt( i );
+            if( ch < '0' || ch > '9' ) {
+                return -1;
+            }
+            index = index * 10 + (ch - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Split a reference into its component names.
+     * Matches the behaviour of ref.split("\\.") - i.e. trailing empty names are discarded - without
+     * the overhead of a regex.
+     */
+    static String[] split(String ref) {
+        int dot = ref.indexOf('.');
+        if( dot == -1 ) {
+            return new String[]{ ref };
+        }
+        List<String> names = new ArrayList<String>();
+        int start = 0;
+        while( dot > -1 ) {
+            names.add( ref.substring( start, dot ) );
+            start = dot + 1;
+            dot = ref.indexOf('.', start );
+        }
+        names.add( ref.substring( start ) );
+        // Discard trailing empty names.
+        int size = names.size();
+        while( size > 0 && names.get( size - 1 ).length() == 0 ) {
+            names.remove( --size );
+        }
+        return names.toArray( new String[size] );
+    }
+}
@@ -0,0 +1,523 @@
+package com.innerfunction.util;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A lazily parsed JSON document.
+ * The document source is scanned once to validate it and to build a flat structural index - the tape -
+ * recording the type and position of every value in the document. No objects are created for the
+ * document's values at this point. Instead, JSON objects and arrays are represented by read-only Map and
+ * List views which decode their direct children from the tape the first time they are accessed; nested
+ * objects and arrays are in turn returned as unmaterialized views. This means that only the parts of a
+ * document which are actually read are ever decoded. Each view releases its reference to the tape once
+ * its children have been decoded, so the document source and tape can be garbage collected once every
+ * view which still needs them has been decoded.
+ * The views decode values in the same way as json-simple: integers are returned as Longs, other numbers
+ * as Doubles, and objects and arrays behave as HashMaps and ArrayLists respectively; numeric arrays are
+ * stored as primitive values (see NumericList). The views can be safely shared between threads.
+ * @author juliangoacher
+ *
+ */
+public class JSONTape {
+
+    /** Value types recorded on the tape. */
+    static final int ObjectType = 1, ArrayType = 2, StringType = 3, EscapedStringType = 4, IntegerType = 5, DoubleType = 6, TrueType = 7, FalseType = 8, NullType = 9;
+
+    /** The number of tape slots used by each value. */
+    static final int NodeSize = 3;
+
+    /**
+     * The tape. Each value in the document is recorded as three consecutive slots:
+     * - the value's type;
+     * - the offset of the value's first character (or of the first character of a string's content);
+     * - for objects and arrays, the index of the next value after the container's last descendant; for
+     *   all other values, the offset of the character following the value (or following a string's content).
+     * Object members are recorded as a key string value followed by the member value.
+     */
+    private final int[] tape;
+    /** The document source. */
+    private final String json;
+    /** An optional interner used to deduplicate decoded strings. */
+    private volatile JSONInterner interner;
+
+    private JSONTape(String json, int[] tape) {
+        this.json = json;
+        this.tape = tape;
+    }
+
+    /**
+     * Set an interner to be used to deduplicate the strings decoded from the document.
+     * Only affects values decoded after this method is called.
+     */
+    public void setInterner(JSONInterner interner) {
+        this.interner = interner;
+    }
+
+    /** Get the interner used to deduplicate decoded strings, if any. */
+    public JSONInterner getInterner() {
+        return interner;
+    }
+
+    /**
+     * Parse a JSON object or array.
+     * @return A lazy Map or List view of the document's top-level value; or null if the string isn't a
+     * valid JSON object or array.
+     */
+    public static Object parse(String json) {
+        JSONTape tape = new Scanner( json ).scan();
+        return tape == null ? null : tape.decode( 0 );
+    }
+
+    /** Get the index of the node following the specified node and all of its descendants. */
+    private int next(int node) {
+        int type = tape[node * NodeSize];
+        return (type == ObjectType || type == ArrayType) ? tape[node * NodeSize + 2] : node + 1;
+    }
+
+    /** Decode a single value. Objects and arrays are returned as unmaterialized views. */
+    private Object decode(int node) {
+        int type = tape[node * NodeSize];
+        int start = tape[node * NodeSize + 1];
+        int end = tape[node * NodeSize + 2];
+        switch( type ) {
+        case ObjectType:
+            return new LazyMap( this, node );
+        case ArrayType:
+            return new LazyList( this, node );
+        case StringType:
+            return intern( json.substring( start, end ) );
+        case EscapedStringType:
+            return intern( unescape( start, end ) );
+        case IntegerType:
+            try {
+                return Long.valueOf( json.substring( start, end ) );
+            }
+            catch(NumberFormatException e) {
+                // Value doesn't fit in a long.
+                return Double.valueOf( json.substring( start, end ) );
+            }
+        case DoubleType:
+            return Double.valueOf( json.substring( start, end ) );
+        case TrueType:
+            return Boolean.TRUE;
+        case FalseType:
+            return Boolean.FALSE;
+        default:
+            return null;
+        }
+    }
+
+    private String intern(String s) {
+        JSONInterner interner = this.interner;
+        return interner == null ? s : interner.intern( s );
+    }
+
+    /** Decode a string containing escape sequences. */
+    private String unescape(int start, int end) {
+        StringBuilder sb = new StringBuilder( end - start );
+        for( int i = start; i < end; i++ ) {
+            char ch = json.charAt( i );
+            if( ch != '\\' ) {
+                sb.append( ch );
+                continue;
+            }
+            ch = json.charAt( ++i );
+            switch( ch ) {
+            case 'b': sb.append('\b'); break;
+            case 'f': sb.append('\f'); break;
+            case 'n': sb.append('\n'); break;
+            case 'r': sb.append('\r'); break;
+            case 't': sb.append('\t'); break;
+            case 'u':
+                sb.append( (char)Integer.parseInt( json.substring( i + 1, i + 5 ), 16 ) );
+                i += 4;
+                break;
+            default:
+                // Handles \" \\ and \/
+                sb.append( ch );
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Decode the members of an object. */
+    private Map<String,Object> decodeObject(int node) {
+        Map<String,Object> result = new HashMap<String,Object>();
+        int end = tape[node * NodeSize + 2];
+        for( int child = node + 1; child < end; ) {
+            String key = (String)decode( child );
+            child = next( child );
+            result.put( key, decode( child ) );
+            child = next( child );
+        }
+        return result;
+    }
+
+    /**
+     * Decode the items of an array.
+     * Arrays whose first item is a number are decoded to a NumericList, so that numeric arrays are stored
+     * without boxing their items.
+     */
+    private List<Object> decodeArray(int node) {
+        int end = tape[node * NodeSize + 2];
+        int count = 0;
+        for( int child = node + 1; child < end; child = next( child ) ) {
+            count++;
+        }
+        int firstType = count > 0 ? tape[(node + 1) * NodeSize] : 0;
+        List<Object> result;
+        if( firstType == IntegerType || firstType == DoubleType ) {
+            result = new NumericList( count );
+        }
+        else {
+            result = new ArrayList<Object>( count );
+        }
+        for( int child = node + 1; child < end; child = next( child ) ) {
+            result.add( decode( child ) );
+        }
+        return result;
+    }
+
+    /** A lazily decoded JSON value. */
+    public interface LazyValue {
+        /** Get the tape the value is decoded from; or null if the value has already been decoded. */
+        JSONTape getTape();
+    }
+
+    /** A lazily decoded JSON object. */
+    static class LazyMap extends AbstractMap<String,Object> implements LazyValue {
+
+        /** The tape; released once the value has been decoded. */
+        private volatile JSONTape tape;
+        private final int node;
+        /** The decoded object members. */
+        private volatile Map<String,Object> members;
+
+        LazyMap(JSONTape tape, int node) {
+            this.tape = tape;
+            this.node = node;
+        }
+
+        @Override
+        public JSONTape getTape() {
+            return tape;
+        }
+
+        private Map<String,Object> getMembers() {
+            Map<String,Object> members = this.members;
+            if( members == null ) {
+                synchronized( this ) {
+                    members = this.members;
+                    if( members == null ) {
+                        members = tape.decodeObject( node );
+                        this.members = members;
+                        tape = null;
+                    }
+                }
+            }
+            return members;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return getMembers().get( key );
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return getMembers().containsKey( key );
+        }
+
+        @Override
+        public int size() {
+            return getMembers().size();
+        }
+
+        @Override
+        public Set<Map.Entry<String,Object>> entrySet() {
+            return Collections.unmodifiableMap( getMembers() ).entrySet();
+        }
+    }
+
+    /** A lazily decoded JSON array. */
+    static class LazyList extends AbstractList<Object> implements LazyValue {
+
+        /** The tape; released once the value has been decoded. */
+        private volatile JSONTape tape;
+        private final int node;
+        /** The decoded array items. */
+        private volatile List<Object> items;
+
+        LazyList(JSONTape tape, int node) {
+            this.tape = tape;
+            this.node = node;
+        }
+
+        @Override
+        public JSONTape getTape() {
+            return tape;
+        }
+
+        List<Object> getItems() {
+            List<Object> items = this.items;
+            if( items == null ) {
+                synchronized( this ) {
+                    items = this.items;
+                    if( items == null ) {
+                        items = tape.decodeArray( node );
+                        this.items = items;
+                        tape = null;
+                    }
+                }
+            }
+            return items;
+        }
+
+        @Override
+        public Object get(int index) {
+            return getItems().get( index );
+        }
+
+        @Override
+        public int size() {
+            return getItems().size();
+        }
+    }
+
+    /**
+     * A scanner for building the tape.
+     * Accepts the same syntax as json-simple, except that the top-level value must be an object or array.
+     */
+    static class Scanner {
+
+        private final String json;
+        private final int length;
+        private int[] tape = new int[NodeSize * 64];
+        private int nodeCount;
+
+        Scanner(String json) {
+            this.json = json;
+            this.length = json.length();
+        }
+
+        /** Scan the document. Returns null if the document isn't valid. */
+        JSONTape scan() {
+            int[] stack = new int[16];
+            int depth = 0;
+            int i = skipWhitespace( 0 );
+            char ch = charAt( i );
+            if( ch != '{' && ch != '[' ) {
+                return null;
+            }
+            while( true ) {
+                // Scan a value.
+                ch = charAt( i );
+                boolean complete = true;
+                switch( ch ) {
+                case '{': case '[':
+                    if( depth == stack.length ) {
+                        int[] _stack = new int[depth * 2];
+                        System.arraycopy( stack, 0, _stack, 0, depth );
+                        stack = _stack;
+                    }
+                    stack[depth++] = addNode( ch == '{' ? ObjectType : ArrayType, i, 0 );
+                    i = skipWhitespace( i + 1 );
+                    if( charAt( i ) == (ch == '{' ? '}' : ']') ) {
+                        endContainer( stack[--depth] );
+                        i++;
+                    }
+                    else {
+                        complete = false;
+                        if( ch == '{' ) {
+                            i = scanKey( i );
+                        }
+                    }
+                    break;
+                case '"':
+                    i = scanString( i );
+                    break;
+                case 't':
+                    i = scanLiteral( i, "true", TrueType );
+                    break;
+                case 'f':
+                    i = scanLiteral( i, "false", FalseType );
+                    break;
+                case 'n':
+                    i = scanLiteral( i, "null", NullType );
+                    break;
+                default:
+                    i = scanNumber( i );
+                }
+                if( i < 0 ) {
+                    return null;
+                }
+                // Scan the tokens following a complete value, closing any containers which end here.
+                while( complete ) {
+                    i = skipWhitespace( i );
+                    if( depth == 0 ) {
+                        if( i < length ) {
+                            return null;
+                        }
+                        int[] result = new int[nodeCount * NodeSize];
+                        System.arraycopy( tape, 0, result, 0, result.length );
+                        return new JSONTape( json, result );
+                    }
+                    int container = stack[depth - 1];
+                    boolean isObject = tape[container * NodeSize] == ObjectType;
+                    ch = charAt( i );
+                    if( ch == ',' ) {
+                        i = skipWhitespace( i + 1 );
+                        if( isObject ) {
+                            i = scanKey( i );
+                            if( i < 0 ) {
+                                return null;
+                            }
+                        }
+                        complete = false;
+                    }
+                    else if( ch == (isObject ? '}' : ']') ) {
+                        endContainer( stack[--depth] );
+                        i++;
+                    }
+                    else {
+                        return null;
+                    }
+                }
+                i = skipWhitespace( i );
+            }
+        }
+
+        /** Scan an object member key and the following separator. */
+        private int scanKey(int i) {
+            if( charAt( i ) != '"' ) {
+                return -1;
+            }
+            i = skipWhitespace( scanString( i ) );
+            if( i < 0 || charAt( i ) != ':' ) {
+                return -1;
+            }
+            return skipWhitespace( i + 1 );
+        }
+
+        private int scanString(int i) {
+            int start = i + 1;
+            boolean escaped = false;
+            for( i = start; i < length; i++ ) {
+                char ch = json.charAt( i );
+                if( ch == '"' ) {
+                    addNode( escaped ? EscapedStringType : StringType, start, i );
+                    return i + 1;
+                }
+                if( ch == '\\' ) {
+                    escaped = true;
+                    ch = charAt( ++i );
+                    if( ch == 'u' ) {
+                        for( int j = 0; j < 4; j++ ) {
+                            if( Character.digit( charAt( ++i ), 16 ) < 0 ) {
+                                return -1;
+                            }
+                        }
+                    }
+                    else if( "\"\\/bfnrt".indexOf( ch ) < 0 ) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private int scanLiteral(int i, String literal, int type) {
+            if( !json.startsWith( literal, i ) ) {
+                return -1;
+            }
+            addNode( type, i, i + literal.length() );
+            return i + literal.length();
+        }
+
+        private int scanNumber(int i) {
+            int start = i;
+            int type = IntegerType;
+            if( charAt( i ) == '-' ) {
+                i++;
+            }
+            i = scanDigits( i );
+            if( i < 0 ) {
+                return -1;
+            }
+            if( charAt( i ) == '.' ) {
+                type = DoubleType;
+                i = scanDigits( i + 1 );
+                if( i < 0 ) {
+                    return -1;
+                }
+            }
+            char ch = charAt( i );
+            if( ch == 'e' || ch == 'E' ) {
+                type = DoubleType;
+                ch = charAt( ++i );
+                if( ch == '+' || ch == '-' ) {
+                    i++;
+                }
+                i = scanDigits( i );
+                if( i < 0 ) {
+                    return -1;
+                }
+            }
+            addNode( type, start, i );
+            return i;
+        }
+
+        /** Scan one or more digits. */
+        private int scanDigits(int i) {
+            int start = i;
+            while( i < length && json.charAt( i ) >= '0' && json.charAt( i ) <= '9' ) {
+                i++;
+            }
+            return i > start ? i : -1;
+        }
+
+        private int skipWhitespace(int i) {
+            if( i < 0 ) {
+                return i;
+            }
+            while( i < length ) {
+                char ch = json.charAt( i );
+                if( ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r' && ch != '\f' ) {
+                    break;
+                }
+                i++;
+            }
+            return i;
+        }
+
+        /** Return the character at the specified offset; or 0 if the offset is past the end of the document. */
+        private char charAt(int i) {
+            return i < length ? json.charAt( i ) : 0;
+        }
+
+        private int addNode(int type, int start, int end) {
+            if( (nodeCount + 1) * NodeSize > tape.length ) {
+                int[] _tape = new int[tape.length * 2];
+                System.arraycopy( tape, 0, _tape, 0, tape.length );
+                tape = _tape;
+            }
+            int slot = nodeCount * NodeSize;
+            tape[slot] = type;
+            tape[slot + 1] = start;
+            tape[slot + 2] = end;
+            return nodeCount++;
+        }
+
+        /** Record the end of a container; i.e. the index of the node following its last descendant. */
+        private void endContainer(int node) {
+            tape[node * NodeSize + 2] = nodeCount;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.innerfunction.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map composed of a layer of entries over a base map.
+ * Values are looked up in the layer first, and then in the base map; entries in the layer shadow entries
+ * with the same key in the base map. Entries added to or removed from a layered map only modify its layer,
+ * so the base map is never modified. Removing a key which is in the base map records a marker in the layer
+ * which hides the base entry.
+ * The map's key and entry sets are views which iterate over the layer and then the base map's unshadowed
+ * entries, without copying either map; iteration order is layer entries first.
+ * The base map may itself be a layered map. If a chain of layered maps grows deeper than MaxDepth then the
+ * base chain is flattened into a single map when the new layer is created, to bound the cost of lookups;
+ * changes made to the flattened maps after this point won't be visible in the new map.
+ * The map isn't thread-safe.
+ * @author juliangoacher
+ *
+ */
+public class LayeredMap<K,V> extends AbstractMap<K,V> {
+
+    /** The maximum depth of a chain of layered maps before it is flattened. */
+    public static final int MaxDepth = 8;
+
+    /** A layer value marking a key as removed. */
+    private static final Object Removed = new Object();
+
+    /** The map's layer of entries. */
+    private final Map<K,Object> layer;
+    /** The base map. */
+    private Map<K,V> base;
+    /** The depth of this map within its chain of layered maps. */
+    private int depth;
+    /** The map's entry set view. */
+    private Set<Map.Entry<K,V>> entrySet;
+
+    /** Create a layered map with an empty layer over a base map. */
+    public LayeredMap(Map<K,V> base) {
+        this( new HashMap<K,Object>(), base );
+    }
+
+    /**
+     * Create a layered map using the specified layer over a base map.
+     * The layer map is used as-is, not copied, and is modified if entries are put into the layered map.
+     */
+    @SuppressWarnings("unchecked")
+    protected LayeredMap(Map<K,?> layer, Map<K,V> base) {
+        this.layer = (Map<K,Object>)layer;
+        int depth = 1;
+        if( base instanceof LayeredMap ) {
+            depth = ((LayeredMap<K,V>)base).depth + 1;
+            if( depth > MaxDepth ) {
+                base = ((LayeredMap<K,V>)base).flatten();
+                depth = 1;
+            }
+        }
+        this.base = base == null ? Collections.<K,V>emptyMap() : base;
+        this.depth = depth;
+    }
+
+    /** Get the base map. */
+    protected Map<K,V> getBase() {
+        return base;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Map<K,V> map = this;
+        while( map instanceof LayeredMap ) {
+            LayeredMap<K,V> lm = (LayeredMap<K,V>)map;
+            Object value = lm.layer.get( key );
+            if( value != null ) {
+                return value == Removed ? null : (V)value;
+            }
+            if( lm.layer.containsKey( key ) ) {
+                return null;
+            }
+            map = lm.base;
+        }
+        return map.get( key );
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key) {
+        Map<K,V> map = this;
+        while( map instanceof LayeredMap ) {
+            LayeredMap<K,V> lm = (LayeredMap<K,V>)map;
+            Object value = lm.layer.get( key );
+            if( value != null ) {
+                return value != Removed;
+            }
+            if( lm.layer.containsKey( key ) ) {
+                return true;
+            }
+            map = lm.base;
+        }
+        return map.containsKey( key );
+    }
+
+    @Override
+    public V put(K key, V value) {
+        V previous = get( key );
+        layer.put( key, value );
+        return previous;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        V previous = get( key );
+        if( base.containsKey( key ) ) {
+            layer.put( (K)key, Removed );
+        }
+        else {
+            layer.remove( key );
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        layer.clear();
+        base = Collections.<K,V>emptyMap();
+        depth = 1;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for( Iterator<Map.Entry<K,V>> it = entrySet().iterator(); it.hasNext(); it.next() ) {
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !entrySet().iterator().hasNext();
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        if( entrySet == null ) {
+            entrySet = new AbstractSet<Map.Entry<K,V>>() {
+                @Override
+                public Iterator<Map.Entry<K,V>> iterator() {
+                    return new EntryIterator();
+                }
+                @Override
+                public int size() {
+                    return LayeredMap.this.size();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /** Return a new map containing all of the map's visible entries. */
+    public Map<K,V> flatten() {
+        Map<K,V> result = new HashMap<K,V>();
+        for( Map.Entry<K,V> entry : entrySet() ) {
+            result.put( entry.getKey(), entry.getValue() );
+        }
+        return result;
+    }
+
+    /** An iterator over the layer's entries, followed by the base map's unshadowed entries. */
+    private class EntryIterator implements Iterator<Map.Entry<K,V>> {
+
+        private final Iterator<Map.Entry<K,Object>> layerEntries = layer.entrySet().iterator();
+        private Iterator<Map.Entry<K,V>> baseEntries;
+        /** The next entry to return; or null if not yet found. */
+        private Map.Entry<K,V> next;
+        /** The key of the last entry returned, and whether the entry was a layer entry. */
+        private K lastKey;
+        private boolean lastInLayer, canRemove;
+
+        @Override
+        public boolean hasNext() {
+            if( next == null ) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K,V> next() {
+            if( !hasNext() ) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K,V> result = next;
+            next = null;
+            lastKey = result.getKey();
+            canRemove = true;
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            if( !canRemove || next != null ) {
+                // Removal isn't supported after hasNext() has moved to the following entry.
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            if( lastInLayer && !base.containsKey( lastKey ) ) {
+                layerEntries.remove();
+            }
+            else {
+                // Mark the key as removed. Replacing a layer entry's value doesn't modify the layer's
+                // structure, and base entries are only iterated once the layer has been iterated.
+                LayeredMap.this.remove( lastKey );
+            }
+        }
+
+        private Map.Entry<K,V> findNext() {
+            while( baseEntries == null && layerEntries.hasNext() ) {
+                final Map.Entry<K,Object> entry = layerEntries.next();
+                if( entry.getValue() != Removed ) {
+                    lastInLayer = true;
+                    return new LayerEntry( entry );
+                }
+            }
+            if( baseEntries == null ) {
+                baseEntries = base.entrySet().iterator();
+            }
+            while( baseEntries.hasNext() ) {
+                Map.Entry<K,V> entry = baseEntries.next();
+                if( !layer.containsKey( entry.getKey() ) ) {
+                    lastInLayer = false;
+                    return new BaseEntry( entry );
+                }
+            }
+            return null;
+        }
+    }
+
+    /** A view of a layer entry. */
+    private class LayerEntry extends SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+        private final Map.Entry<K,Object> entry;
+        @SuppressWarnings("unchecked")
+        LayerEntry(Map.Entry<K,Object> entry) {
+            super( entry.getKey(), (V)entry.getValue() );
+            this.entry = entry;
+        }
+        @Override
+        public V setValue(V value) {
+            entry.setValue( value );
+            return super.setValue( value );
+        }
+    }
+
+    /** A view of a base map entry. Setting the entry's value adds an entry to the layer. */
+    private class BaseEntry extends SimpleEntry<K,V> {
+        private static final long serialVersionUID = 1L;
+        BaseEntry(Map.Entry<K,V> entry) {
+            super( entry.getKey(), entry.getValue() );
+        }
+        @Override
+        public V setValue(V value) {
+            layer.put( getKey(), value );
+            return super.setValue( value );
+        }
+    }
+}
@@ -1,9 +1,7 @@
 package com.innerfunction.util;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * Utililty map functions.
@@ -14,64 +12,13 @@ public class Maps {
 
     /**
      * Return a new modifiable version of a map containing all the original's entries.
-     * New entries can be added to the new version without modifying the original.
-     * Note that item deletion is only partly supported. Items can be added and removed
-     * from the set of modified entries; but removing an item that only exists in the
-     * original map will not have any effect.
+     * New entries can be added to, and entries removed from, the new version without modifying
+     * the original. See LayeredMap.
      * @param map
      * @return
      */
-    public static <K, V> Map<K, V> extend(final Map<K, V> map) {
-        return new HashMap<K,V>() {
-            private static final long serialVersionUID = 1L;
-            @Override
-            public V get(Object key) {
-                return super.containsKey( key ) ? super.get( key ) : map.get( key );
-            }
-            @Override
-            public boolean containsKey(Object key) {
-                return super.containsKey( key ) || map.containsKey( key );
-            }
-            @Override
-            public V remove(Object key) {
-                if( super.containsKey( key ) ) {
-                    return super.remove( key );
-                }
-                return map.remove( key );
-            }
-            @Override
-            public Set<K> keySet() {
-                HashSet<K> keys = new HashSet<K>();
-                keys.addAll( super.keySet() );
-                keys.addAll( map.keySet() );
-                return keys;
-            }
-            @Override
-            public Set<Entry<K,V>> entrySet() {
-                HashSet<Entry<K,V>> entries = new HashSet<Entry<K,V>>();
-                entries.addAll( super.entrySet() );
-                entries.addAll( map.entrySet() );
-                return entries;
-            }
-            @Override
-            public String toString() {
-                StringBuffer sb = new StringBuffer("{ ");
-                boolean delimit = false;
-                for( Object k : keySet() ) {
-                    if( delimit ) {
-                        sb.append(", ");
-                    }
-                    else {
-                        delimit = true;
-                    }
-                    sb.append( k );
-                    sb.append(" : ");
-                    sb.append( get( k ) );
-                }
-                sb.append(" }");
-                return sb.toString();
-            }
-        };
+    public static <K, V> Map<K, V> extend(Map<K, V> map) {
+        return new LayeredMap<K,V>( map );
     }
     
     /**
@@ -100,6 +47,41 @@ public class Maps {
         return result;
     }
 
+    /**
+     * Return a map with precomputed path keys for nested map values.
+     * Returns a layered map over the original map (see LayeredMap). For each of the named values which is a
+     * map, the layer contains an entry for each of the nested map's entries, keyed by its dotted path; e.g.
+     * a "platform" value of { "name": "and" } results in a "platform.name" entry with value "and". Nested
+     * maps are added recursively. This allows dotted template references to be resolved with a single
+     * lookup. The original map isn't modified. The path keys are a copy, so should only be added for values
+     * which won't be modified afterwards.
+     * @param map   The map to add keys to.
+     * @param names The names of the values to add path keys for.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String,Object> withPathKeys(Map<String,Object> map, String... names) {
+        Map<String,Object> result = new LayeredMap<String,Object>( map );
+        for( String name : names ) {
+            Object value = map.get( name );
+            if( value instanceof Map ) {
+                addPathKeys( result, name, (Map<String,Object>)value );
+            }
+        }
+        return result;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static void addPathKeys(Map<String,Object> map, String prefix, Map<String,Object> values) {
+        for( Map.Entry<String,Object> entry : values.entrySet() ) {
+            String path = prefix+"."+entry.getKey();
+            Object value = entry.getValue();
+            map.put( path, value );
+            if( value instanceof Map ) {
+                addPathKeys( map, path, (Map<String,Object>)value );
+            }
+        }
+    }
+
     /**
      * Return a map populated with the specified name/value.
      */
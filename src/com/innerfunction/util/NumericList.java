@@ -0,0 +1,358 @@
+package com.innerfunction.util;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list which stores numeric items as primitive values.
+ * JSON parsers store each number in an array as a boxed Long or Double, which for large numeric arrays
+ * uses several times the memory of the numbers themselves. This list stores its items in a long[] array
+ * for as long as all of its items are integers, and in a double[] array for as long as all of its items
+ * are numbers; if any other item is added then the list falls back to storing its items in an Object[]
+ * array. Items are returned in the same form as json-simple returns them - integers as Longs, and other
+ * numbers as Doubles - so the list can be used in place of a list of parsed JSON values.
+ * The getLong() and getDouble() methods read numeric items without boxing.
+ * A list can be made read-only using freeze(). The list isn't thread-safe, but a frozen list can be read
+ * on several threads at the same time.
+ * @author juliangoacher
+ *
+ */
+public class NumericList extends AbstractList<Object> implements RandomAccess {
+
+    /** Item storage modes. */
+    static final int LongItems = 0, DoubleItems = 1, ObjectItems = 2;
+
+    /** The largest integer which can be stored exactly as a double. */
+    static final long MaxExactDouble = 1L << 53;
+
+    static final long[] EmptyLongs = new long[0];
+
+    /** The current storage mode. */
+    private int mode = LongItems;
+    /** The items, when all items are integers. */
+    private long[] longs;
+    /** The items, when all items are numbers. */
+    private double[] doubles;
+    /** Flags which items of a list of doubles are integers. */
+    private BitSet integers;
+    /** The items, when not all items are numbers. */
+    private Object[] objects;
+    /** The number of items in the list. */
+    private int size;
+    /** Flag indicating that the list is read-only. See freeze(). */
+    private boolean frozen;
+
+    public NumericList() {
+        this.longs = EmptyLongs;
+    }
+
+    public NumericList(int capacity) {
+        this.longs = new long[capacity];
+    }
+
+    /** Make the list read-only. Any subsequent modification throws an UnsupportedOperationException. */
+    public void freeze() {
+        frozen = true;
+    }
+
+    /** Test whether the list is read-only. */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /** Test whether all of the list's items are numbers. */
+    public boolean isNumeric() {
+        return mode != ObjectItems;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Object get(int index) {
+        checkIndex( index );
+        switch( mode ) {
+        case LongItems:
+            return Long.valueOf( longs[index] );
+        case DoubleItems:
+            if( integers.get( index ) ) {
+                return Long.valueOf( (long)doubles[index] );
+            }
+            return Double.valueOf( doubles[index] );
+        default:
+            return objects[index];
+        }
+    }
+
+    /**
+     * Get an item as a long.
+     * @throws ClassCastException If the item isn't a number.
+     */
+    public long getLong(int index) {
+        checkIndex( index );
+        switch( mode ) {
+        case LongItems:
+            return longs[index];
+        case DoubleItems:
+            return (long)doubles[index];
+        default:
+            return ((Number)objects[index]).longValue();
+        }
+    }
+
+    /**
+     * Get an item as a double.
+     * @throws ClassCastException If the item isn't a number.
+     */
+    public double getDouble(int index) {
+        checkIndex( index );
+        switch( mode ) {
+        case LongItems:
+            return longs[index];
+        case DoubleItems:
+            return doubles[index];
+        default:
+            return ((Number)objects[index]).doubleValue();
+        }
+    }
+
+    @Override
+    public Object set(int index, Object item) {
+        checkMutable();
+        Object previous = get( index );
+        store( index, item );
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Object item) {
+        checkMutable();
+        if( index < 0 || index > size ) {
+            throw new IndexOutOfBoundsException( String.format("Index: %d, Size: %d", index, size ));
+        }
+        if( size == 0 ) {
+            // Choose the storage mode for the first item, rather than converting later.
+            initializeMode( item );
+        }
+        ensureCapacity( size + 1 );
+        if( index < size ) {
+            // Inserting into a list of doubles would also require the integer flags to be shifted.
+            if( mode == DoubleItems ) {
+                convertToObjects();
+            }
+            Object array = mode == LongItems ? longs : objects;
+            System.arraycopy( array, index, array, index + 1, size - index );
+        }
+        size++;
+        modCount++;
+        store( index, item );
+    }
+
+    @Override
+    public Object remove(int index) {
+        checkMutable();
+        Object previous = get( index );
+        if( index < size - 1 ) {
+            if( mode == DoubleItems ) {
+                convertToObjects();
+            }
+            Object array = mode == LongItems ? longs : objects;
+            System.arraycopy( array, index + 1, array, index, size - index - 1 );
+        }
+        size--;
+        if( mode == ObjectItems ) {
+            objects[size] = null;
+        }
+        modCount++;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        checkMutable();
+        longs = EmptyLongs;
+        doubles = null;
+        integers = null;
+        objects = null;
+        mode = LongItems;
+        size = 0;
+        modCount++;
+    }
+
+    /** Reduce the list's capacity to its size. */
+    public void trimToSize() {
+        if( capacity() > size ) {
+            resize( size );
+        }
+    }
+
+    private void checkIndex(int index) {
+        if( index < 0 || index >= size ) {
+            throw new IndexOutOfBoundsException( String.format("Index: %d, Size: %d", index, size ));
+        }
+    }
+
+    private void checkMutable() {
+        if( frozen ) {
+            throw new UnsupportedOperationException("List is frozen");
+        }
+    }
+
+    private static boolean isInteger(Object item) {
+        return item instanceof Long || item instanceof Integer || item instanceof Short || item instanceof Byte;
+    }
+
+    private static boolean isDouble(Object item) {
+        return item instanceof Double || item instanceof Float;
+    }
+
+    /** Set the storage mode of an empty list to suit its first item. */
+    private void initializeMode(Object item) {
+        int capacity = capacity();
+        longs = null;
+        doubles = null;
+        integers = null;
+        objects = null;
+        if( isInteger( item ) ) {
+            mode = LongItems;
+            longs = new long[capacity];
+        }
+        else if( isDouble( item ) ) {
+            mode = DoubleItems;
+            doubles = new double[capacity];
+            integers = new BitSet();
+        }
+        else {
+            mode = ObjectItems;
+            objects = new Object[capacity];
+        }
+    }
+
+    /** Store an item, converting the list's storage mode if necessary. */
+    private void store(int index, Object item) {
+        if( mode == LongItems ) {
+            if( isInteger( item ) ) {
+                longs[index] = ((Number)item).longValue();
+                return;
+            }
+            if( isDouble( item ) ) {
+                convertToDoubles();
+            }
+            else {
+                convertToObjects();
+            }
+        }
+        if( mode == DoubleItems ) {
+            if( isInteger( item ) ) {
+                long value = ((Number)item).longValue();
+                if( Math.abs( value ) <= MaxExactDouble ) {
+                    doubles[index] = value;
+                    integers.set( index );
+                    return;
+                }
+            }
+            else if( isDouble( item ) ) {
+                doubles[index] = ((Number)item).doubleValue();
+                integers.clear( index );
+                return;
+            }
+            convertToObjects();
+        }
+        objects[index] = item;
+    }
+
+    /** Convert a list of integers to a list of doubles. */
+    private void convertToDoubles() {
+        for( int i = 0; i < size; i++ ) {
+            if( Math.abs( longs[i] ) > MaxExactDouble ) {
+                convertToObjects();
+                return;
+            }
+        }
+        double[] doubles = new double[longs.length];
+        BitSet integers = new BitSet( size );
+        for( int i = 0; i < size; i++ ) {
+            doubles[i] = longs[i];
+        }
+        integers.set( 0, size );
+        this.doubles = doubles;
+        this.integers = integers;
+        this.longs = null;
+        this.mode = DoubleItems;
+    }
+
+    /** Convert the list to a list of objects. */
+    private void convertToObjects() {
+        Object[] objects = new Object[capacity()];
+        for( int i = 0; i < size; i++ ) {
+            objects[i] = get( i );
+        }
+        this.objects = objects;
+        this.longs = null;
+        this.doubles = null;
+        this.integers = null;
+        this.mode = ObjectItems;
+    }
+
+    private int capacity() {
+        switch( mode ) {
+        case LongItems:     return longs.length;
+        case DoubleItems:   return doubles.length;
+        default:            return objects.length;
+        }
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        int capacity = capacity();
+        if( minCapacity > capacity ) {
+            resize( Math.max( minCapacity, capacity + (capacity >> 1) + 1 ) );
+        }
+    }
+
+    private void resize(int capacity) {
+        switch( mode ) {
+        case LongItems:
+            long[] longs = new long[capacity];
+            System.arraycopy( this.longs, 0, longs, 0, size );
+            this.longs = longs;
+            break;
+        case DoubleItems:
+            double[] doubles = new double[capacity];
+            System.arraycopy( this.doubles, 0, doubles, 0, size );
+            this.doubles = doubles;
+            break;
+        default:
+            Object[] objects = new Object[capacity];
+            System.arraycopy( this.objects, 0, objects, 0, size );
+            this.objects = objects;
+        }
+    }
+
+    /**
+     * Return a list of numbers as a numeric list.
+     * @return The list itself, if it is a numeric list; the list's decoded items, if the list is a lazily
+     * decoded JSON array which decodes to a numeric list (see JSONTape); a numeric copy of the list, if all
+     * of its items are numbers; otherwise null.
+     */
+    public static NumericList asNumericList(List<?> list) {
+        if( list instanceof JSONTape.LazyList ) {
+            list = ((JSONTape.LazyList)list).getItems();
+        }
+        if( list instanceof NumericList ) {
+            NumericList numericList = (NumericList)list;
+            return numericList.isNumeric() ? numericList : null;
+        }
+        NumericList result = new NumericList( list.size() );
+        for( Object item : list ) {
+            if( !(isInteger( item ) || isDouble( item )) ) {
+                return null;
+            }
+            result.add( item );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,405 @@
+package com.innerfunction.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map implemented as a persistent hash array mapped trie.
+ * Maps are modified using the plus(), plusAll() and minus() methods, which return a new map
+ * and leave the original unchanged. The new map shares all unmodified structure with the
+ * original, so the cost (in both time and memory) of deriving a new map is proportional to
+ * the number of modified keys rather than the size of the map.
+ * The standard Map mutation methods aren't supported. Null keys aren't supported; null values are.
+ * @author juliangoacher
+ *
+ */
+public class PersistentMap<K,V> extends AbstractMap<K,V> {
+
+    /** The number of hash bits consumed at each level of the trie. */
+    static final int BitsPerLevel = 5;
+    /** Marker value returned when a key isn't found. */
+    static final Object NotFound = new Object();
+
+    @SuppressWarnings("rawtypes")
+    static final PersistentMap Empty = new PersistentMap( null, 0 );
+
+    /** The root node of the trie; null for an empty map. */
+    private final Node root;
+    /** The number of entries in the map. */
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /** Return an empty map. */
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentMap<K,V> empty() {
+        return (PersistentMap<K,V>)Empty;
+    }
+
+    /**
+     * Return a persistent map with the same entries as the specified map.
+     * If the map is already a persistent map then it is returned unchanged.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentMap<K,V> from(Map<? extends K,? extends V> map) {
+        if( map instanceof PersistentMap ) {
+            return (PersistentMap<K,V>)map;
+        }
+        PersistentMap<K,V> result = empty();
+        return map == null ? result : result.plusAll( map );
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        if( root == null || key == null ) {
+            return null;
+        }
+        Object value = root.find( 0, hash( key ), key );
+        return value == NotFound ? null : (V)value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if( root == null || key == null ) {
+            return false;
+        }
+        return root.find( 0, hash( key ), key ) != NotFound;
+    }
+
+    /** Return a new map with the specified key mapped to the specified value. */
+    public PersistentMap<K,V> plus(K key, V value) {
+        if( key == null ) {
+            throw new NullPointerException("Null keys aren't supported");
+        }
+        boolean[] added = new boolean[1];
+        Node node = root == null ? BitmapNode.Empty : root;
+        Node newRoot = node.assoc( 0, hash( key ), key, value, added );
+        if( newRoot == root ) {
+            return this;
+        }
+        return new PersistentMap<K,V>( newRoot, added[0] ? size + 1 : size );
+    }
+
+    /**
+     * Return a new map with all entries of the specified map added to this map.
+     * Entries in the specified map replace entries in this map with the same key.
+     */
+    public PersistentMap<K,V> plusAll(Map<? extends K,? extends V> map) {
+        PersistentMap<K,V> result = this;
+        for( Map.Entry<? extends K,? extends V> entry : map.entrySet() ) {
+            result = result.plus( entry.getKey(), entry.getValue() );
+        }
+        return result;
+    }
+
+    /** Return a new map without the specified key. */
+    public PersistentMap<K,V> minus(Object key) {
+        if( root == null || key == null ) {
+            return this;
+        }
+        Node newRoot = root.without( 0, hash( key ), key );
+        if( newRoot == root ) {
+            return this;
+        }
+        return newRoot == null ? PersistentMap.<K,V>empty() : new PersistentMap<K,V>( newRoot, size - 1 );
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new EntryIterator<K,V>( root );
+            }
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Calculate a key's hash; spreads the high bits of the key's hash code into the low bits. */
+    static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** Return the bit position of a hash at the specified trie level. */
+    static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & 0x1F);
+    }
+
+    /** Return a copy of an array with one item replaced. */
+    static Object[] cloneAndSet(Object[] array, int i, Object item) {
+        Object[] result = array.clone();
+        result[i] = item;
+        return result;
+    }
+
+    /**
+     * A trie node.
+     * Node entries are stored in an array as key/value pairs; a null key indicates that the value
+     * is a child node.
+     */
+    static abstract class Node {
+        final Object[] array;
+        Node(Object[] array) {
+            this.array = array;
+        }
+        /** Find the value for a key; returns NotFound if the key isn't found. */
+        abstract Object find(int shift, int hash, Object key);
+        /** Return a node with the specified key mapped to a value. */
+        abstract Node assoc(int shift, int hash, Object key, Object value, boolean[] added);
+        /** Return a node without the specified key; or null if the result is an empty node. */
+        abstract Node without(int shift, int hash, Object key);
+    }
+
+    /** A node with up to 32 entries, indexed using a bitmap of hash fragments. */
+    static final class BitmapNode extends Node {
+
+        static final BitmapNode Empty = new BitmapNode( 0, new Object[0] );
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super( array );
+            this.bitmap = bitmap;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount( bitmap & (bit - 1) );
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            int bit = bitpos( hash, shift );
+            if( (bitmap & bit) == 0 ) {
+                return NotFound;
+            }
+            int idx = index( bit );
+            Object k = array[2 * idx];
+            Object v = array[2 * idx + 1];
+            if( k == null ) {
+                return ((Node)v).find( shift + BitsPerLevel, hash, key );
+            }
+            return key.equals( k ) ? v : NotFound;
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bitpos( hash, shift );
+            int idx = index( bit );
+            if( (bitmap & bit) != 0 ) {
+                Object k = array[2 * idx];
+                Object v = array[2 * idx + 1];
+                if( k == null ) {
+                    Node node = ((Node)v).assoc( shift + BitsPerLevel, hash, key, value, added );
+                    return node == v ? this : new BitmapNode( bitmap, cloneAndSet( array, 2 * idx + 1, node ) );
+                }
+                if( key.equals( k ) ) {
+                    return v == value ? this : new BitmapNode( bitmap, cloneAndSet( array, 2 * idx + 1, value ) );
+                }
+                // Hash fragment collision with a different key; push both entries down into a child node.
+                added[0] = true;
+                Node node = createNode( shift + BitsPerLevel, k, v, hash, key, value );
+                Object[] newArray = cloneAndSet( array, 2 * idx, null );
+                newArray[2 * idx + 1] = node;
+                return new BitmapNode( bitmap, newArray );
+            }
+            int n = Integer.bitCount( bitmap );
+            Object[] newArray = new Object[2 * (n + 1)];
+            System.arraycopy( array, 0, newArray, 0, 2 * idx );
+            newArray[2 * idx] = key;
+            newArray[2 * idx + 1] = value;
+            System.arraycopy( array, 2 * idx, newArray, 2 * (idx + 1), 2 * (n - idx) );
+            added[0] = true;
+            return new BitmapNode( bitmap | bit, newArray );
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            int bit = bitpos( hash, shift );
+            if( (bitmap & bit) == 0 ) {
+                return this;
+            }
+            int idx = index( bit );
+            Object k = array[2 * idx];
+            Object v = array[2 * idx + 1];
+            if( k == null ) {
+                Node node = ((Node)v).without( shift + BitsPerLevel, hash, key );
+                if( node == v ) {
+                    return this;
+                }
+                if( node != null ) {
+                    return new BitmapNode( bitmap, cloneAndSet( array, 2 * idx + 1, node ) );
+                }
+            }
+            else if( !key.equals( k ) ) {
+                return this;
+            }
+            if( bitmap == bit ) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy( array, 0, newArray, 0, 2 * idx );
+            System.arraycopy( array, 2 * (idx + 1), newArray, 2 * idx, newArray.length - 2 * idx );
+            return new BitmapNode( bitmap ^ bit, newArray );
+        }
+
+        /** Create a node containing two entries. */
+        static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = hash( key1 );
+            if( hash1 == hash2 ) {
+                return new CollisionNode( hash1, new Object[]{ key1, value1, key2, value2 } );
+            }
+            boolean[] added = new boolean[1];
+            return Empty.assoc( shift, hash1, key1, value1, added ).assoc( shift, hash2, key2, value2, added );
+        }
+    }
+
+    /** A node containing entries whose keys have identical hashes. */
+    static final class CollisionNode extends Node {
+
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super( array );
+            this.hash = hash;
+        }
+
+        int indexOf(Object key) {
+            for( int i = 0; i < array.length; i += 2 ) {
+                if( key.equals( array[i] ) ) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, Object key) {
+            if( hash == this.hash ) {
+                int i = indexOf( key );
+                if( i > -1 ) {
+                    return array[i + 1];
+                }
+            }
+            return NotFound;
+        }
+
+        @Override
+        Node assoc(int shift, int hash, Object key, Object value, boolean[] added) {
+            if( hash == this.hash ) {
+                int i = indexOf( key );
+                if( i > -1 ) {
+                    return array[i + 1] == value ? this : new CollisionNode( hash, cloneAndSet( array, i + 1, value ) );
+                }
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy( array, 0, newArray, 0, array.length );
+                newArray[array.length] = key;
+                newArray[array.length + 1] = value;
+                added[0] = true;
+                return new CollisionNode( hash, newArray );
+            }
+            // Different hash; nest this node within a bitmap node and add the new entry to that.
+            BitmapNode node = new BitmapNode( bitpos( this.hash, shift ), new Object[]{ null, this } );
+            return node.assoc( shift, hash, key, value, added );
+        }
+
+        @Override
+        Node without(int shift, int hash, Object key) {
+            int i = hash == this.hash ? indexOf( key ) : -1;
+            if( i == -1 ) {
+                return this;
+            }
+            if( array.length == 2 ) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy( array, 0, newArray, 0, i );
+            System.arraycopy( array, i + 2, newArray, i, newArray.length - i );
+            return new CollisionNode( hash, newArray );
+        }
+    }
+
+    /** A depth-first iterator over the entries of a trie. */
+    static final class EntryIterator<K,V> implements Iterator<Map.Entry<K,V>> {
+
+        /** The arrays of the nodes currently being iterated, one per trie level. */
+        private Object[][] arrays = new Object[10][];
+        /** The current position in each node array. */
+        private int[] positions = new int[10];
+        /** The current trie depth. */
+        private int depth = -1;
+        /** The next entry to return. */
+        private Map.Entry<K,V> next;
+
+        EntryIterator(Node root) {
+            if( root != null ) {
+                push( root );
+                advance();
+            }
+        }
+
+        private void push(Node node) {
+            depth++;
+            arrays[depth] = node.array;
+            positions[depth] = 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while( depth > -1 ) {
+                Object[] array = arrays[depth];
+                int pos = positions[depth];
+                if( pos >= array.length ) {
+                    arrays[depth--] = null;
+                    continue;
+                }
+                positions[depth] = pos + 2;
+                Object key = array[pos];
+                if( key == null ) {
+                    push( (Node)array[pos + 1] );
+                }
+                else {
+                    next = new AbstractMap.SimpleImmutableEntry<K,V>( (K)key, (V)array[pos + 1] );
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K,V> next() {
+            if( next == null ) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K,V> result = next;
+            advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -1,91 +1,254 @@
 package com.innerfunction.util;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.Map;
 
+/**
+ * A string template.
+ * Templates contain references to context values in the form {name} or {dotted.path}, where names
+ * are composed of letters, digits and the characters - _ $ and ., e.g. "Hello {user.name}". Any other
+ * text - including braces which don't enclose a valid reference - is rendered unchanged.
+ * Templates are immutable once parsed, and can be rendered on several threads at the same time.
+ * Templates can be rendered into a caller supplied buffer using renderTo(); templates without any
+ * references render as the original template string, and a template consisting of a single reference
+ * can be rendered as the referenced value using renderValue().
+ */
 public class StringTemplate {
 
     static abstract class Block extends JSONData {
-        abstract String eval(Object context);
+        /** Append the block's rendered text to a buffer. */
+        abstract void appendTo(Appendable out, Object context) throws IOException;
     }
 
-    /** Regex pattern for matching var references within a template string. */
-    static private Pattern p = Pattern.compile("^([^{]*)[{]([-a-zA-Z0-9_$.]+)[}](.*)$");
+    /** The maximum number of parsed templates held in the cache. */
+    static final int MaxCachedTemplates = 1024;
+    /** A cache of parsed templates, keyed by template string. Used by render(String,Object). */
+    static final ConcurrentCache<String,StringTemplate> Cache = new ConcurrentCache<String,StringTemplate>( MaxCachedTemplates );
+
     /** An array of parsed template blocks. */
     private List<Block> blocks = new ArrayList<Block>();
+    /** The template string. */
+    private String source;
+    /** The combined length of the template's text blocks; used to size render buffers. */
+    private int textLength;
 
+    /**
+     * Parse a template string.
+     * The string is scanned once from start to end. At each position, the text up to the next opening
+     * brace is read; if the brace starts a valid reference then the text and reference are added as
+     * blocks; otherwise, the text up to and including the next closing brace is read as literal text.
+     */
     public StringTemplate(String s) {
-        while( s.length() > 0 ) {
-            Matcher m = p.matcher( s );
-            if( m.find() ) {
-                this.blocks.add( this.newTextBlock( m.group( 1 )));
-                this.blocks.add( this.newRefBlock( m.group( 2 )));
-                s = m.group( 3 );
-            }
-            else {
-                int i = s.indexOf('}') + 1;
-                if( i > 0 ) {
-                    this.blocks.add( this.newTextBlock( s.substring( 0, i )));
-                    s = s.substring( i++ );
+        this.source = s;
+        int length = s.length();
+        StringBuilder text = new StringBuilder();
+        // The position of the next opening brace, and the position of its closing brace if it starts a
+        // valid reference (or -1). Recorded so that the text between braces is only scanned once.
+        int open = -1, close = -1;
+        int pos = 0;
+        while( pos < length ) {
+            if( open < pos ) {
+                open = s.indexOf('{', pos );
+                if( open == -1 ) {
+                    open = length;
                 }
-                else {
-                    this.blocks.add( this.newTextBlock( s ));
-                    break;
+                close = scanRef( s, open + 1 );
+            }
+            if( close > -1 ) {
+                // Read the text and reference.
+                text.append( s, pos, open );
+                if( text.length() > 0 ) {
+                    addTextBlock( text.toString() );
+                    text.setLength( 0 );
                 }
+                blocks.add( new RefBlock( s.substring( open + 1, close ) ) );
+                pos = close + 1;
             }
+            else {
+                // No valid reference, read text up to and including the next closing brace.
+                int end = s.indexOf('}', pos );
+                end = end == -1 ? length : end + 1;
+                text.append( s, pos, end );
+                pos = end;
+            }
+        }
+        if( text.length() > 0 ) {
+            addTextBlock( text.toString() );
         }
     }
 
-    private Block newTextBlock(final String text) {
-        return new Block() {
-            @Override
-            String eval(Object context) {
-                return text;
+    /**
+     * Scan a reference name.
+     * @param s     The template string.
+     * @param start The position following an opening brace.
+     * @return The position of the reference's closing brace; or -1 if the brace isn't followed by a
+     * valid, non-empty reference name and a closing brace.
+     */
+    private static int scanRef(String s, int start) {
+        int length = s.length();
+        for( int i = start; i < length; i++ ) {
+            char ch = s.charAt( i );
+            if( ch == '}' ) {
+                return i > start ? i : -1;
             }
-            @Override
-            public String toString() {
-                return text;
+            boolean valid = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z') || (ch >= '0' && ch <= '9')
+                         || ch == '-' || ch == '_' || ch == '$' || ch == '.';
+            if( !valid ) {
+                return -1;
             }
-        };
+        }
+        return -1;
+    }
+
+    private void addTextBlock(String text) {
+        blocks.add( new TextBlock( text ) );
+        textLength += text.length();
     }
 
-    private Block newRefBlock(final String ref) {
-        return new Block() {
-            @Override
-            String eval(Object context) {
-                Object value = super.resolveJSONReference( ref, context );
-                return value == null ? "" : value.toString();
+    static class TextBlock extends Block {
+        final String text;
+        TextBlock(String text) {
+            this.text = text;
+        }
+        @Override
+        void appendTo(Appendable out, Object context) throws IOException {
+            out.append( text );
+        }
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    static class RefBlock extends Block {
+        final String ref;
+        final JSONPath path;
+        final boolean dotted;
+        RefBlock(String ref) {
+            this.ref = ref;
+            this.path = JSONPath.compile( ref );
+            this.dotted = path.length() > 1;
+        }
+        /** Resolve the referenced value. */
+        @SuppressWarnings("rawtypes")
+        Object resolve(Object context) {
+            Object value = null;
+            // Dotted references are first looked up as a single key, in case the context contains
+            // precomputed path keys (see Maps.withPathKeys()); otherwise the path is resolved.
+            if( dotted && context instanceof Map ) {
+                value = ((Map)context).get( ref );
+            }
+            if( value == null ) {
+                value = resolveJSONReference( path, context );
             }
-            @Override
-            public String toString() {
-                return "{"+ref+"}";
+            return value;
+        }
+        @Override
+        void appendTo(Appendable out, Object context) throws IOException {
+            Object value = resolve( context );
+            if( value instanceof CharSequence ) {
+                out.append( (CharSequence)value );
             }
-        };
+            else if( value != null ) {
+                // Append integers directly to string builders, to avoid creating a string for the number.
+                if( out instanceof StringBuilder && (value instanceof Long || value instanceof Integer) ) {
+                    ((StringBuilder)out).append( ((Number)value).longValue() );
+                }
+                else {
+                    out.append( value.toString() );
+                }
+            }
+        }
+        @Override
+        public String toString() {
+            return "{"+ref+"}";
+        }
+    }
+
+    /** Test whether the template contains any references. */
+    public boolean hasRefs() {
+        return textLength < source.length();
+    }
+
+    /** Test whether the template consists of a single reference, with no surrounding text. */
+    public boolean isSingleRef() {
+        return blocks.size() == 1 && blocks.get( 0 ) instanceof RefBlock;
     }
 
+    /**
+     * Render the template.
+     * Returns the original template string if the template doesn't contain any references.
+     */
     public String render(Object context) {
-        StringBuilder sb = new StringBuilder();
-        for( Block b : this.blocks ) {
-            sb.append( b.eval( context ));
+        if( !hasRefs() ) {
+            return source;
+        }
+        if( isSingleRef() ) {
+            Object value = ((RefBlock)blocks.get( 0 )).resolve( context );
+            return value == null ? "" : value.toString();
+        }
+        return renderTo( new StringBuilder( textLength + 16 * blocks.size() ), context ).toString();
+    }
+
+    /**
+     * Render the template into a buffer.
+     * Referenced string values are appended directly to the buffer, without creating any intermediate strings.
+     * @return The buffer.
+     */
+    public StringBuilder renderTo(StringBuilder out, Object context) {
+        try {
+            renderTo( (Appendable)out, context );
+        }
+        catch(IOException e) {
+            // Not thrown by StringBuilder.
+        }
+        return out;
+    }
+
+    /**
+     * Render the template into an appendable, e.g. a Writer.
+     * @throws IOException If the appendable throws an exception.
+     */
+    public void renderTo(Appendable out, Object context) throws IOException {
+        for( int i = 0, n = blocks.size(); i < n; i++ ) {
+            blocks.get( i ).appendTo( out, context );
         }
-        return sb.toString();
+    }
+
+    /**
+     * Render the template as a value.
+     * If the template consists of a single reference then the referenced value is returned unconverted
+     * (or null if there is no value); otherwise the template is rendered as a string.
+     */
+    public Object renderValue(Object context) {
+        if( isSingleRef() ) {
+            return ((RefBlock)blocks.get( 0 )).resolve( context );
+        }
+        return render( context );
     }
 
     @Override
     public String toString() {
-        StringBuffer sb = new StringBuffer();
-        for( Block b : blocks ) sb.append( b );
-        return sb.toString();
+        return source;
     }
 
     public static StringTemplate templateWithString(String s) {
         return new StringTemplate( s );
     }
 
+    /**
+     * Render a template string.
+     * Parsed templates are cached, so repeatedly rendering the same template string only parses it once.
+     */
     public static String render(String s, Object context) {
-        return new StringTemplate( s ).render( context );
+        StringTemplate template = Cache.get( s );
+        if( template == null ) {
+            template = new StringTemplate( s );
+            Cache.put( s, template );
+        }
+        return template.render( context );
     }
 
 }
@@ -4,15 +4,21 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.WeakReference;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.json.simple.JSONValue;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContainerFactory;
+import org.json.simple.parser.JSONParser;
 
 import android.content.Context;
 import android.content.res.Resources;
@@ -22,28 +28,96 @@ import android.util.Log;
 
 /**
  * Standard EP value type conversions.
+ * Conversions are performed by converters, which are registered for a representation name and a source
+ * value class. The converter used for a value is the one registered for the most specific of the value's
+ * class, its superclasses or its interfaces; lookups are cached by class. Apps can add representations,
+ * or conversions of their own types, by registering converters with the instance for their context.
  * @author juliangoacher
  *
  */
 public class TypeConversions {
 
     static final String LogTag = TypeConversions.class.getSimpleName();
-    static Map<Context,TypeConversions> InstancesByContext = new HashMap<Context,TypeConversions>();
+    /**
+     * Instances by context. Contexts are weakly referenced, so that instances don't prevent their context
+     * from being garbage collected.
+     */
+    static Map<Context,TypeConversions> InstancesByContext = Collections.synchronizedMap( new WeakHashMap<Context,TypeConversions>() );
+
+    /**
+     * A converter of values to a representation.
+     */
+    public interface Converter {
+        /**
+         * Convert a value.
+         * @param value         The value to convert. Never null.
+         * @param conversions   The conversions instance performing the conversion.
+         * @return The converted value, which should be an instance of the representation's type; or null if
+         * the value can't be converted.
+         */
+        Object convert(Object value, TypeConversions conversions);
+    }
+
+    /** A cached lookup result indicating that no converter is registered for a class. */
+    static final Converter NoConverter = new Converter() {
+        @Override
+        public Object convert(Object value, TypeConversions conversions) {
+            return null;
+        }
+    };
+    
+    /**
+     * Creates the containers for parsed JSON data.
+     * Arrays are parsed to NumericLists, so that numeric arrays are stored without boxing their items.
+     */
+    static final ContainerFactory JSONContainerFactory = new ContainerFactory() {
+        @SuppressWarnings("rawtypes")
+        @Override
+        public Map createObjectContainer() {
+            return new JSONObject();
+        }
+        @SuppressWarnings("rawtypes")
+        @Override
+        public List creatArrayContainer() {
+            return new NumericList();
+        }
+    };
+
+    /** The minimum length of JSON strings whose parsed data is cached. Shorter strings are cheap to parse. */
+    static final int MinCachedJSONLength = 1024;
+    /** The maximum total length of the JSON strings whose parsed data is cached. */
+    static final long MaxCachedJSONLength = 2 * 1024 * 1024;
+    /**
+     * A cache of parsed JSON data, keyed by JSON string. Entries are weighted by string length, as a proxy
+     * for the size of the parsed data. Lookups hash the string - which is only computed once for each
+     * string instance - and compare strings by identity before comparing their contents.
+     */
+    static final BoundedCache<String,Object> JSONCache = new BoundedCache<String,Object>( MaxCachedJSONLength, new BoundedCache.Weigher<String,Object>() {
+        @Override
+        public int weigh(String key, Object value) {
+            return key.length();
+        }
+    });
     
-    private Context context;
+    /** The app context. Weakly referenced, see InstancesByContext. */
+    private WeakReference<Context> contextRef;
     private Resources r;
-    private Pattern jsonPattern;
+    /** Registered converters, keyed by representation name and then by source class. */
+    private Map<String,Map<Class<?>,Converter>> converters = new HashMap<String,Map<Class<?>,Converter>>();
+    /** Converter lookup results, keyed by representation name and then by value class. */
+    private ConcurrentHashMap<String,ConcurrentHashMap<Class<?>,Converter>> convertersByClass = new ConcurrentHashMap<String,ConcurrentHashMap<Class<?>,Converter>>();
     
-    public TypeConversions() {}
+    public TypeConversions() {
+        registerStandardConverters();
+    }
     
     public TypeConversions(Context context) {
-        this.context = context;
+        this.contextRef = new WeakReference<Context>( context );
         this.r = context.getResources();
-        this.jsonPattern = Pattern.compile("^\\s*([{\\[\"\\d]|true|false)");
-
+        registerStandardConverters();
     }
     
-    public static TypeConversions instanceForContext(Context context) {
+    public static synchronized TypeConversions instanceForContext(Context context) {
         TypeConversions instance = InstancesByContext.get( context );
         if( instance == null ) {
             instance = new TypeConversions( context );
@@ -52,33 +126,203 @@ public class TypeConversions {
         return instance;
     }
 
+
     /**
-     * Convert value to a string:
-     *  String -> String
-     *  Number -> Number.toString()
-     *  byte[] -> new String( byte[], "UTF-8") 
-     *  * -> Object.toString()
+     * Register a converter.
+     * @param representation    The name of the representation the converter produces.
+     * @param sourceClass       The class of values the converter converts. The converter is also used for
+     *                          subclasses and implementations of the class, unless a more specific converter
+     *                          is registered.
+     * @param converter         The converter. Replaces any converter previously registered for the same
+     *                          representation and source class.
      */
-    public String asString(Object value) {
-        String result = null;
-        if( value instanceof String ) {
-            result = (String)value;
+    public void registerConverter(String representation, Class<?> sourceClass, Converter converter) {
+        synchronized( converters ) {
+            Map<Class<?>,Converter> byClass = converters.get( representation );
+            if( byClass == null ) {
+                byClass = new HashMap<Class<?>,Converter>();
+                converters.put( representation, byClass );
+            }
+            byClass.put( sourceClass, converter );
+            convertersByClass.clear();
         }
-        else if( value instanceof Number ) {
-            result = value.toString();
+    }
+
+    /**
+     * Get the converter to use for a class of value.
+     * @return The converter; or null if no converter is registered for the class or any of its supertypes.
+     */
+    public Converter getConverter(Class<?> valueClass, String representation) {
+        ConcurrentHashMap<Class<?>,Converter> byClass = convertersByClass.get( representation );
+        if( byClass == null ) {
+            byClass = new ConcurrentHashMap<Class<?>,Converter>();
+            ConcurrentHashMap<Class<?>,Converter> existing = convertersByClass.putIfAbsent( representation, byClass );
+            if( existing != null ) {
+                byClass = existing;
+            }
         }
-        else if( value instanceof byte[] ) {
-            try {
-                result = new String( (byte[])value, "UTF-8");
+        Converter converter = byClass.get( valueClass );
+        if( converter == null ) {
+            synchronized( converters ) {
+                converter = findConverter( valueClass, converters.get( representation ) );
             }
-            catch(UnsupportedEncodingException e) {
-                Log.w( LogTag, e );
+            if( converter == null ) {
+                converter = NoConverter;
             }
+            byClass.put( valueClass, converter );
         }
-        else if( value != null ) {
-            result = value.toString();
+        return converter == NoConverter ? null : converter;
+    }
+
+    /**
+     * Find the converter registered for the most specific supertype of a class.
+     * Each superclass is checked before its interfaces; Object is checked last.
+     */
+    private static Converter findConverter(Class<?> valueClass, Map<Class<?>,Converter> registered) {
+        if( registered == null ) {
+            return null;
         }
-        return result;
+        for( Class<?> cl = valueClass; cl != null && cl != Object.class; cl = cl.getSuperclass() ) {
+            Converter converter = registered.get( cl );
+            if( converter == null ) {
+                converter = findInterfaceConverter( cl.getInterfaces(), registered );
+            }
+            if( converter != null ) {
+                return converter;
+            }
+        }
+        return registered.get( Object.class );
+    }
+
+    private static Converter findInterfaceConverter(Class<?>[] interfaces, Map<Class<?>,Converter> registered) {
+        for( Class<?> iface : interfaces ) {
+            Converter converter = registered.get( iface );
+            if( converter == null ) {
+                converter = findInterfaceConverter( iface.getInterfaces(), registered );
+            }
+            if( converter != null ) {
+                return converter;
+            }
+        }
+        return null;
+    }
+
+    /** Register converters for the standard representations; see asRepresentation(). */
+    private void registerStandardConverters() {
+        Converter identity = new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return value;
+            }
+        };
+        // string
+        registerConverter("string", Object.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return value.toString();
+            }
+        });
+        registerConverter("string", byte[].class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                try {
+                    return new String( (byte[])value, "UTF-8");
+                }
+                catch(UnsupportedEncodingException e) {
+                    Log.w( LogTag, e );
+                }
+                return null;
+            }
+        });
+        // number
+        registerConverter("number", Number.class, identity );
+        // boolean
+        registerConverter("boolean", Boolean.class, identity );
+        registerConverter("boolean", Number.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                // Any non-zero integer value evaluates to true.
+                return ((Number)value).intValue() != 0;
+            }
+        });
+        // date
+        registerConverter("date", Date.class, identity );
+        registerConverter("date", Number.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return new Date( ((Number)value).longValue() );
+            }
+        });
+        registerConverter("date", Object.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                String svalue = conversions.asString( value );
+                try {
+                    return ISO8601.toDate( svalue );
+                }
+                catch(ParseException e) {
+                    Log.w(LogTag, e);
+                }
+                return null;
+            }
+        });
+        // url
+        registerConverter("url", Object.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                String uri = conversions.asString( value );
+                try {
+                    return uri == null ? null : new URI( uri );
+                }
+                catch(URISyntaxException e) {
+                    Log.w(LogTag, e);
+                }
+                return null;
+            }
+        });
+        // data
+        registerConverter("data", byte[].class, identity );
+        registerConverter("data", Object.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                String svalue = conversions.asString( value );
+                try {
+                    return svalue == null ? null : svalue.getBytes("UTF-8");
+                }
+                catch(UnsupportedEncodingException e) {
+                    Log.w(LogTag, e);
+                }
+                return null;
+            }
+        });
+        // image
+        registerConverter("image", Object.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return conversions.loadImage( conversions.asString( value ) );
+            }
+        });
+        // json
+        registerConverter("json", Object.class, identity );
+        registerConverter("json", String.class, new Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return conversions.parseJSON( (String)value );
+            }
+        });
+        // default
+        registerConverter("default", Object.class, identity );
+    }
+
+    /**
+     * Convert value to a string:
+     *  String -> String
+     *  Number -> Number.toString()
+     *  byte[] -> new String( byte[], "UTF-8") 
+     *  * -> Object.toString()
+     */
+    public String asString(Object value) {
+        return (String)asRepresentation( value, "string");
     }
     
     /**
@@ -87,11 +331,7 @@ public class TypeConversions {
      *  * -> null
      */
     public Number asNumber(Object value) {
-        Number result = null;
-        if( value instanceof Number ) {
-            result = (Number)value;
-        }
-        return result;
+        return (Number)asRepresentation( value, "number");
     }
     
     /**
@@ -100,18 +340,7 @@ public class TypeConversions {
      *  * -> false
      */
     public Boolean asBoolean(Object value) {
-        Boolean result = null;//Boolean.FALSE;
-        if( value instanceof Boolean ) {
-            result = (Boolean)value;
-        }
-        else {
-            Number nvalue = asNumber( value );
-            if( nvalue != null ) {
-                // Any non-zero integer value evaluates to true.
-                result = nvalue.intValue() != 0;
-            }
-        }
-        return result;
+        return (Boolean)asRepresentation( value, "boolean");
     }
     
     /**
@@ -121,23 +350,7 @@ public class TypeConversions {
      *  * -> String -> new Date (ISO8601 value)
      */
     public Date asDate(Object value) {
-        Date result = null;
-        if( value instanceof Date ) {
-            result = (Date)value;
-        }
-        else if( value instanceof Number ) {
-            result = new Date( ((Number)value).longValue() ); 
-        }
-        else if( value != null ) {
-            String svalue = asString( value );
-            try {
-                result = ISO8601.toDate( svalue );
-            }
-            catch(ParseException e) {
-                Log.w(LogTag, e);
-            }
-        }
-        return result;
+        return (Date)asRepresentation( value, "date");
     }
     
     /**
@@ -145,16 +358,7 @@ public class TypeConversions {
      *  * -> String -> URI
      */
     public URI asURL(Object value) {
-        try {
-            String uri = asString( value );
-            if( uri != null ) {
-                return new URI( asString( value ) );
-            }
-        }
-        catch(URISyntaxException e) {
-            Log.w(LogTag, e);
-        }
-        return null;
+        return (URI)asRepresentation( value, "url");
     }
     
     /**
@@ -162,55 +366,47 @@ public class TypeConversions {
      *  * -> String -> byte[]
      */
     public byte[] asData(Object value) {
-        byte[] result = null;
-        if( value instanceof byte[] ) {
-            result = (byte[])value;
-        }
-        else if( value != null ) {
-            String svalue = asString( value );
-            try {
-                result = svalue.getBytes("UTF-8");
-            }
-            catch(UnsupportedEncodingException e) {
-                Log.w(LogTag, e);
-            }
-        }
-        return result;
+        return (byte[])asRepresentation( value, "data");
     }
     
     /**
      * Convert value to an image:
      *  * -> String -> Drawable (string interpreted as image resource name; if not found, then as asset name). 
      */
-    @SuppressWarnings("deprecation")
     public Drawable asImage(Object value) {
+        return (Drawable)asRepresentation( value, "image");
+    }
+
+    /**
+     * Load an image. The name is interpreted as an image resource name; if not found, then as an asset name.
+     */
+    @SuppressWarnings("deprecation")
+    private Drawable loadImage(String name) {
         Drawable result = null;
-        if( value != null && this.context != null && this.r != null ) {
-            String name = asString( value );
-            if( name != null ) {
-                int id = ImageUtil.imageNameToResourceID( name, this.r, this.context );
-                if( id > 0 ) {
-                    result = this.r.getDrawable( id );
-                    Log.d(LogTag, String.format("Resolved image resource %s -> %d", name, id ));
+        Context context = contextRef == null ? null : contextRef.get();
+        if( name != null && context != null && this.r != null ) {
+            int id = ImageUtil.imageNameToResourceID( name, this.r, context );
+            if( id > 0 ) {
+                result = this.r.getDrawable( id );
+                Log.d(LogTag, String.format("Resolved image resource %s -> %d", name, id ));
+            }
+            else {
+                InputStream in = null;
+                try {
+                    in = context.getAssets().open( name );
+                    return Drawable.createFromStream( in, name );
+                }
+                catch(FileNotFoundException fnfe) {
+                    Log.e(LogTag, String.format("Asset not found: %s", name ));
                 }
-                else {
-                    InputStream in = null;
+                catch(IOException ioe) {
+                    Log.e(LogTag, String.format("Reading image from %s", name ), ioe );
+                }
+                finally {
                     try {
-                        in = this.context.getAssets().open( name );
-                        return Drawable.createFromStream( in, name );
-                    }
-                    catch(FileNotFoundException fnfe) {
-                        Log.e(LogTag, String.format("Asset not found: %s", name ));
-                    }
-                    catch(IOException ioe) {
-                        Log.e(LogTag, String.format("Reading image from %s", name ), ioe );
-                    }
-                    finally {
-                        try {
-                            in.close();
-                        }
-                        catch(Exception e) {}
+                        in.close();
                     }
+                    catch(Exception e) {}
                 }
             }
         }
@@ -240,37 +436,121 @@ public class TypeConversions {
      * Convert the value to parsed JSON data.
      * Assumes the string representation of the value is valid JSON.
      * * -> String -> <parse JSON> -> Object
+     * The parsed data of long JSON strings is cached, so converting the same string again returns the same
+     * data without parsing it again. Cached objects and arrays are shared, so are read-only; the data of
+     * shorter strings is returned as modifiable JSON containers.
      */
     public Object asJSONData(Object value) {
-        Object result = null;
-        if( value instanceof String ) {
-            // NOTE: This is different from the iOS implementation, which
-            // converts to data (i.e. NSData) before parsing the JSON, due
-            // to the format of the iOS API call.
-            String svalue = (String)value;
-            // If the string value looks like JSON then try parsing as JSON...
-            if( svalue != null && jsonPattern.matcher( svalue ).find() ) {
-                try {
-                    result = JSONValue.parseWithException( svalue );
-                }
-                catch(org.json.simple.parser.ParseException e) {
-                    Log.e(LogTag, "Parsing JSON", e );
-                    result = svalue;
-                }
+        return asRepresentation( value, "json");
+    }
+
+    /** Parse a string as JSON, if it looks like JSON; otherwise return the string unchanged. */
+    private Object parseJSON(String svalue) {
+        // NOTE: This is different from the iOS implementation, which
+        // converts to data (i.e. NSData) before parsing the JSON, due
+        // to the format of the iOS API call.
+        // If the string value doesn't look like JSON then return it unchanged.
+        if( !looksLikeJSON( svalue ) ) {
+            return svalue;
+        }
+        boolean cacheable = svalue.length() >= MinCachedJSONLength;
+        if( cacheable ) {
+            Object result = JSONCache.get( svalue );
+            if( result != null ) {
+                return result;
             }
-            else {
-                result = value;
+        }
+        Object result = svalue;
+        try {
+            result = new JSONParser().parse( svalue, JSONContainerFactory );
+            if( cacheable ) {
+                result = freezeJSONData( result );
             }
         }
-        else {
-            result = value;
+        catch(org.json.simple.parser.ParseException e) {
+            Log.e(LogTag, "Parsing JSON", e );
+        }
+        if( cacheable && result != null ) {
+            // Invalid JSON strings are also cached, with the string as the result, to avoid parsing them again.
+            JSONCache.put( svalue, result );
         }
         return result;
     }
+
+    /**
+     * Test whether a string looks like JSON, i.e. whether its first non-whitespace character starts an
+     * object, array, string or number, or it starts with true or false.
+     */
+    static boolean looksLikeJSON(String s) {
+        int length = s.length();
+        int i = 0;
+        while( i < length ) {
+            char ch = s.charAt( i );
+            if( ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r' && ch != '\f' && ch != '\u000B' ) {
+                break;
+            }
+            i++;
+        }
+        if( i == length ) {
+            return false;
+        }
+        char ch = s.charAt( i );
+        return ch == '{' || ch == '[' || ch == '"' || (ch >= '0' && ch <= '9')
+            || s.startsWith("true", i ) || s.startsWith("false", i );
+    }
+
+    /**
+     * Make parsed JSON data read-only.
+     * JSON objects are wrapped in unmodifiable maps; JSON arrays - which are parsed as NumericLists -
+     * are frozen, so that they can still be read as numeric lists.
+     */
+    @SuppressWarnings("unchecked")
+    static Object freezeJSONData(Object data) {
+        if( data instanceof Map ) {
+            Map<String,Object> map = (Map<String,Object>)data;
+            for( Map.Entry<String,Object> entry : map.entrySet() ) {
+                Object value = entry.getValue();
+                if( value instanceof Map || value instanceof NumericList ) {
+                    entry.setValue( freezeJSONData( value ) );
+                }
+            }
+            return Collections.unmodifiableMap( map );
+        }
+        if( data instanceof NumericList ) {
+            NumericList list = (NumericList)data;
+            if( !list.isNumeric() ) {
+                for( int i = 0; i < list.size(); i++ ) {
+                    Object item = list.get( i );
+                    if( item instanceof Map || item instanceof NumericList ) {
+                        list.set( i, freezeJSONData( item ) );
+                    }
+                }
+            }
+            list.trimToSize();
+            list.freeze();
+        }
+        return data;
+    }
+    
+    /**
+     * Convert the value to lazily parsed JSON data.
+     * JSON object and array strings are indexed without being fully parsed, and are returned as read-only
+     * Map and List views whose contents are decoded as they are accessed; see JSONTape. Other values -
+     * including strings which aren't valid JSON - are converted using asJSONData().
+     */
+    public Object asLazyJSONData(Object value) {
+        if( value instanceof String ) {
+            Object result = JSONTape.parse( (String)value );
+            if( result != null ) {
+                return result;
+            }
+        }
+        return asJSONData( value );
+    }
     
     /**
      * Convert to the named representation.
-     * Recognized representation names are:
+     * Standard representation names are:
      * - string
      * - number
      * - boolean (returned as a number, to confirm with the return type).
@@ -280,35 +560,14 @@ public class TypeConversions {
      * - image
      * - json
      * - default (returns the unchanged value).
+     * Other representations are available if converters have been registered for them; see registerConverter().
+     * @return The converted value; or null if the value is null, or no converter is registered for the value.
      */
     public Object asRepresentation(Object value, String name) {
-        if("string".equals( name ) ) {
-            return asString( value );
-        }
-        if("number".equals( name ) ) {
-            return asNumber( value );
-        }
-        if("boolean".equals( name ) ) {
-            return asBoolean( value );
-        }
-        if("date".equals( name ) ) {
-            return asDate( value );
-        }
-        if("url".equals( name ) ) {
-            return asURL( value );
+        if( value == null ) {
+            return null;
         }
-        if("data".equals( name ) ) {
-            return asData( value );
-        }
-        if("image".equals( name ) ) {
-            return asImage( value );
-        }
-        if("json".equals( name ) ) {
-            return asJSONData( value );
-        }
-        if("default".equals( name ) ) {
-            return value;
-        }
-        return null;
+        Converter converter = getConverter( value.getClass(), name );
+        return converter == null ? null : converter.convert( value, this );
     }
 }
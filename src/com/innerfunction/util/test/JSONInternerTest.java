@@ -0,0 +1,62 @@
+package com.innerfunction.util.test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.CompactMap;
+import com.innerfunction.util.JSONInterner;
+
+public class JSONInternerTest extends AndroidTestCase {
+
+    @SuppressWarnings("unchecked")
+    public void testDeduplicate() {
+        Object json = JSONValue.parse("[{\"semo:type\":\"view\",\"title\":\"view\"},{\"semo:type\":\"view\"}]");
+        JSONInterner interner = new JSONInterner();
+        List<Object> list = (List<Object>)interner.deduplicate( json );
+        Map<String,Object> item0 = (Map<String,Object>)list.get( 0 );
+        Map<String,Object> item1 = (Map<String,Object>)list.get( 1 );
+        assertTrue( item0 instanceof CompactMap );
+        assertEquals("view", item0.get("title") );
+        assertSame( item0.get("semo:type"), item1.get("semo:type") );
+        assertSame( item0.get("semo:type"), item0.get("title") );
+        assertSame( findKey( item0, "semo:type"), findKey( item1, "semo:type") );
+        assertEquals( 3, interner.getDuplicateStrings() );
+        assertEquals( 2, interner.getCompactedMaps() );
+        assertTrue( interner.getBytesSaved() > 0 );
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testLargeMaps() {
+        Map<String,Object> map = new HashMap<String,Object>();
+        for( int i = 0; i < 20; i++ ) {
+            map.put( new String("key"+i ), new String("value") );
+        }
+        Map<String,Object> result = (Map<String,Object>)new JSONInterner().deduplicate( map );
+        assertFalse( result instanceof CompactMap );
+        assertEquals( map, result );
+        assertSame( result.get("key0"), result.get("key1") );
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testNoCompaction() {
+        Map<String,Object> map = new HashMap<String,Object>();
+        map.put("a", "b");
+        Map<String,Object> result = (Map<String,Object>)new JSONInterner( false ).deduplicate( map );
+        assertFalse( result instanceof CompactMap );
+        assertEquals( map, result );
+    }
+
+    private String findKey(Map<String,Object> map, String key) {
+        for( String k : map.keySet() ) {
+            if( k.equals( key ) ) {
+                return k;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package com.innerfunction.util.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.JSONData;
+import com.innerfunction.util.JSONPath;
+
+public class JSONPathTest extends AndroidTestCase {
+
+    private JSONData jsonData;
+    private Map<String,Object> data;
+
+    public void setUp() throws Exception {
+        jsonData = new JSONData() {};
+        List<Object> list = new ArrayList<Object>();
+        list.add("zero");
+        list.add("one");
+        Map<String,Object> child = new HashMap<String,Object>();
+        child.put("list", list );
+        child.put("1", "map key");
+        data = new HashMap<String,Object>();
+        data.put("child", child );
+    }
+
+    public void testCompile() {
+        JSONPath path = JSONPath.compile("a.b.12.c");
+        assertEquals( 4, path.length() );
+        assertEquals("a", path.getName( 0 ) );
+        assertEquals( -1, path.getIndex( 0 ) );
+        assertEquals("12", path.getName( 2 ) );
+        assertEquals( 12, path.getIndex( 2 ) );
+        assertSame( path, JSONPath.compile("a.b.12.c") );
+    }
+
+    public void testSplit() {
+        assertEquals( 1, JSONPath.compile("").length() );
+        assertEquals( 2, JSONPath.compile("a.b.").length() );
+        assertEquals( 3, JSONPath.compile("a..b").length() );
+        assertEquals("", JSONPath.compile("a..b").getName( 1 ) );
+    }
+
+    public void testParseIndex() {
+        assertEquals( 0, JSONPath.parseIndex("0") );
+        assertEquals( 345, JSONPath.parseIndex("345") );
+        assertEquals( -1, JSONPath.parseIndex("-1") );
+        assertEquals( -1, JSONPath.parseIndex("1a") );
+        assertEquals( -1, JSONPath.parseIndex("") );
+    }
+
+    public void testResolve() {
+        assertEquals("one", jsonData.resolveJSONReference("child.list.1", data ) );
+        assertEquals("map key", jsonData.resolveJSONReference("child.1", data ) );
+        assertNull( jsonData.resolveJSONReference("child.list.2", data ) );
+        assertNull( jsonData.resolveJSONReference("child.list.x", data ) );
+        assertNull( jsonData.resolveJSONReference("child.missing.0", data ) );
+    }
+}
@@ -0,0 +1,83 @@
+package com.innerfunction.util.test;
+
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.JSONInterner;
+import com.innerfunction.util.JSONTape;
+
+public class JSONTapeTest extends AndroidTestCase {
+
+    static final String[] Documents = new String[]{
+        "{}",
+        "[]",
+        " { \"a\" : 1 , \"b\" : [ true, false, null ], \"c\": {} } ",
+        "[1, -2, 3.5, -4.25e2, 1E+3, 12345678901, \"x\"]",
+        "{\"s\":\"a\\\"b\\\\c\\/d\\n\\t\\u0041\\u00e9\", \"nested\":{\"list\":[{\"x\":[[]]}]}}",
+        "{\"a\":1,\"a\":2}"
+    };
+
+    public void testMatchesJSONSimple() {
+        for( String json : Documents ) {
+            Object expected = JSONValue.parse( json );
+            Object actual = JSONTape.parse( json );
+            assertNotNull( json, actual );
+            assertEquals( json, expected, actual );
+        }
+    }
+
+    public void testInvalidDocuments() {
+        String[] invalid = new String[]{
+            "", "1", "\"abc\"", "{", "[1,]", "{\"a\"}", "{\"a\":}", "[1 2]", "{\"a\":1}x",
+            "[tru]", "[1.]", "[-]", "[\"abc]", "[\"\\x\"]", "[\"\\u00G0\"]", "{a:1}", "[1]]"
+        };
+        for( String json : invalid ) {
+            assertNull( json, JSONTape.parse( json ) );
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testLazyViews() {
+        Map<String,Object> map = (Map<String,Object>)JSONTape.parse("{\"a\":{\"b\":[1,{\"c\":\"d\"}]}}");
+        Map<String,Object> a = (Map<String,Object>)map.get("a");
+        assertTrue( a instanceof JSONTape.LazyValue );
+        assertNotNull( ((JSONTape.LazyValue)a).getTape() );
+        List<Object> b = (List<Object>)a.get("b");
+        // Decoded views release the tape; views which haven't been decoded still hold it.
+        assertNull( ((JSONTape.LazyValue)map).getTape() );
+        assertNull( ((JSONTape.LazyValue)a).getTape() );
+        assertNotNull( ((JSONTape.LazyValue)b).getTape() );
+        assertEquals( 2, b.size() );
+        assertEquals( 1L, b.get( 0 ) );
+        assertEquals("d", ((Map<String,Object>)b.get( 1 )).get("c") );
+        // Values are decoded once only.
+        assertSame( a, map.get("a") );
+        try {
+            map.put("x", "y");
+            fail("Lazy views should be read-only");
+        }
+        catch(UnsupportedOperationException e) {}
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testInterning() {
+        List<Object> list = (List<Object>)JSONTape.parse("[{\"k\":\"v\"},{\"k\":\"v\"}]");
+        new JSONInterner().deduplicate( list );
+        Map<String,Object> item0 = (Map<String,Object>)list.get( 0 );
+        Map<String,Object> item1 = (Map<String,Object>)list.get( 1 );
+        assertSame( item0.get("k"), item1.get("k") );
+        // Views which have already been decoded are deduplicated as they are.
+        list = (List<Object>)JSONTape.parse("[[\"a\",\"b\"],[\"a\",\"b\"]]");
+        List<Object> list0 = (List<Object>)list.get( 0 );
+        List<Object> list1 = (List<Object>)list.get( 1 );
+        String a0 = (String)list0.get( 0 ), a1 = (String)list1.get( 0 );
+        assertNotSame( a0, a1 );
+        new JSONInterner().deduplicate( list );
+        assertSame( list0.get( 0 ), list1.get( 0 ) );
+        assertSame( a0, list1.get( 0 ) );
+    }
+}
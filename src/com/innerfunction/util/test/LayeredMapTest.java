@@ -0,0 +1,83 @@
+package com.innerfunction.util.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.LayeredMap;
+import com.innerfunction.util.Maps;
+
+public class LayeredMapTest extends AndroidTestCase {
+
+    private Map<String,Object> makeBase() {
+        Map<String,Object> base = new HashMap<String,Object>();
+        base.put("a", 1L );
+        base.put("b", 2L );
+        base.put("n", null );
+        return base;
+    }
+
+    public void testLayering() {
+        Map<String,Object> base = makeBase();
+        Map<String,Object> map = Maps.extend( base );
+        assertEquals( base, map );
+        map.put("b", 3L );
+        map.put("c", 4L );
+        assertEquals( 3L, map.get("b") );
+        assertEquals( 4L, map.get("c") );
+        assertTrue( map.containsKey("n") );
+        assertEquals( 4, map.size() );
+        // Removing a base key hides it without modifying the base map.
+        assertEquals( 1L, map.remove("a") );
+        assertFalse( map.containsKey("a") );
+        assertNull( map.get("a") );
+        assertEquals( 1L, base.get("a") );
+        assertEquals( 2L, base.get("b") );
+        Map<String,Object> expected = new HashMap<String,Object>();
+        expected.put("b", 3L );
+        expected.put("c", 4L );
+        expected.put("n", null );
+        assertEquals( expected, map );
+        assertEquals( expected, new HashMap<String,Object>( map ) );
+        // Changes to the base map are visible through the layer.
+        base.put("d", 5L );
+        assertEquals( 5L, map.get("d") );
+        map.clear();
+        assertTrue( map.isEmpty() );
+        assertEquals( 4, base.size() );
+    }
+
+    public void testIteratorRemove() {
+        Map<String,Object> base = makeBase();
+        Map<String,Object> map = Maps.extend( base );
+        map.put("a", 10L );
+        map.put("c", 3L );
+        for( Iterator<Map.Entry<String,Object>> it = map.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String,Object> entry = it.next();
+            if( !"c".equals( entry.getKey() ) ) {
+                it.remove();
+            }
+        }
+        assertEquals( Maps.mapWithEntry("c", (Object)3L ), map );
+        assertEquals( makeBase(), base );
+        // Setting the value of a base entry adds it to the layer.
+        map = Maps.extend( base );
+        for( Map.Entry<String,Object> entry : map.entrySet() ) {
+            entry.setValue("x");
+        }
+        assertEquals("x", map.get("a") );
+        assertEquals( 1L, base.get("a") );
+    }
+
+    public void testFlattening() {
+        Map<String,Object> map = makeBase();
+        for( int i = 0; i < 3 * LayeredMap.MaxDepth; i++ ) {
+            map = Maps.join( map, Maps.mapWithEntry("k"+i, (Object)i ) );
+        }
+        assertEquals( 3 + 3 * LayeredMap.MaxDepth, map.size() );
+        assertEquals( 0, map.get("k0") );
+        assertEquals( 2L, map.get("b") );
+    }
+}
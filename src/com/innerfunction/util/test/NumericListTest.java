@@ -0,0 +1,88 @@
+package com.innerfunction.util.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.json.simple.JSONValue;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.JSONTape;
+import com.innerfunction.util.NumericList;
+import com.innerfunction.util.TypeConversions;
+
+public class NumericListTest extends AndroidTestCase {
+
+    public void testStorageModes() {
+        NumericList list = new NumericList();
+        list.add( 1L );
+        list.add( 2L );
+        assertTrue( list.isNumeric() );
+        assertEquals( Arrays.asList( 1L, 2L ), list );
+        // Adding a double keeps the integers as Longs.
+        list.add( 2.5 );
+        assertTrue( list.isNumeric() );
+        assertEquals( Arrays.<Object>asList( 1L, 2L, 2.5 ), list );
+        assertEquals( 2.5, list.getDouble( 2 ) );
+        assertEquals( 2L, list.getLong( 2 ) );
+        // Adding a non-number falls back to objects.
+        list.add("x");
+        assertFalse( list.isNumeric() );
+        assertEquals( Arrays.<Object>asList( 1L, 2L, 2.5, "x" ), list );
+        assertEquals( 2.5, list.getDouble( 2 ) );
+    }
+
+    public void testListOperations() {
+        NumericList list = new NumericList();
+        for( long i = 0; i < 100; i++ ) {
+            list.add( i );
+        }
+        list.add( 0, -1L );
+        assertEquals( 101, list.size() );
+        assertEquals( -1L, list.getLong( 0 ) );
+        assertEquals( 99L, list.getLong( 100 ) );
+        assertEquals( Long.valueOf( -1 ), list.remove( 0 ) );
+        assertEquals( 0L, list.getLong( 0 ) );
+        list.set( 1, 1.5 );
+        assertEquals( 1.5, list.get( 1 ) );
+        assertEquals( 2L, list.get( 2 ) );
+        list.remove( 1 );
+        assertEquals( 2L, list.get( 1 ) );
+        list.clear();
+        assertTrue( list.isEmpty() );
+        list.add("x");
+        assertEquals( Arrays.asList("x"), list );
+        try {
+            list.get( 1 );
+            fail("Expected IndexOutOfBoundsException");
+        }
+        catch(IndexOutOfBoundsException e) {}
+    }
+
+    public void testLargeIntegers() {
+        NumericList list = new NumericList();
+        list.add( Long.MAX_VALUE );
+        list.add( 0.5 );
+        // Long.MAX_VALUE can't be stored exactly as a double.
+        assertEquals( Long.MAX_VALUE, list.get( 0 ) );
+        assertEquals( 0.5, list.get( 1 ) );
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testParsedArrays() {
+        String json = "{\"a\":[1,2,3.5,-4],\"b\":[\"x\",1],\"c\":[]}";
+        Object expected = JSONValue.parse( json );
+        Map<String,Object> lazy = (Map<String,Object>)JSONTape.parse( json );
+        Map<String,Object> parsed = (Map<String,Object>)new TypeConversions( getContext() ).asJSONData( json );
+        assertEquals( expected, lazy );
+        assertEquals( expected, parsed );
+        assertTrue( parsed.get("a") instanceof NumericList );
+        NumericList a = NumericList.asNumericList( (List<Object>)lazy.get("a") );
+        assertNotNull( a );
+        assertEquals( 3.5, a.getDouble( 2 ) );
+        assertNull( NumericList.asNumericList( (List<Object>)lazy.get("b") ) );
+        assertNotNull( NumericList.asNumericList( new ArrayList<Object>( Arrays.asList( 1, 2L ) ) ) );
+    }
+}
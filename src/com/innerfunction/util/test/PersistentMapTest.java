@@ -0,0 +1,74 @@
+package com.innerfunction.util.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.PersistentMap;
+
+public class PersistentMapTest extends AndroidTestCase {
+
+    public void testPlusAndMinus() {
+        PersistentMap<String,Object> map0 = PersistentMap.empty();
+        PersistentMap<String,Object> map1 = map0.plus("a", 1 ).plus("b", 2 );
+        PersistentMap<String,Object> map2 = map1.plus("a", 3 ).minus("b");
+        assertEquals( 0, map0.size() );
+        assertEquals( 2, map1.size() );
+        assertEquals( 1, map1.get("a") );
+        assertEquals( 2, map1.get("b") );
+        assertEquals( 1, map2.size() );
+        assertEquals( 3, map2.get("a") );
+        assertFalse( map2.containsKey("b") );
+        assertSame( map2, map2.minus("x") );
+    }
+
+    public void testNullValues() {
+        PersistentMap<String,Object> map = PersistentMap.<String,Object>empty().plus("a", null );
+        assertEquals( 1, map.size() );
+        assertTrue( map.containsKey("a") );
+        assertNull( map.get("a") );
+    }
+
+    public void testHashCollisions() {
+        // "Aa" and "BB" have identical hash codes.
+        PersistentMap<String,Object> map = PersistentMap.<String,Object>empty().plus("Aa", 1 ).plus("BB", 2 );
+        assertEquals( 2, map.size() );
+        assertEquals( 1, map.get("Aa") );
+        assertEquals( 2, map.get("BB") );
+        map = map.minus("Aa");
+        assertEquals( 1, map.size() );
+        assertNull( map.get("Aa") );
+        assertEquals( 2, map.get("BB") );
+    }
+
+    public void testAgainstHashMap() {
+        Random random = new Random( 1 );
+        Map<String,Object> expected = new HashMap<String,Object>();
+        PersistentMap<String,Object> map = PersistentMap.empty();
+        for( int i = 0; i < 20000; i++ ) {
+            String key = "k"+random.nextInt( 2000 );
+            if( random.nextInt( 3 ) == 0 ) {
+                expected.remove( key );
+                map = map.minus( key );
+            }
+            else {
+                expected.put( key, i );
+                map = map.plus( key, i );
+            }
+        }
+        assertEquals( expected.size(), map.size() );
+        assertEquals( expected, map );
+        assertEquals( map, expected );
+        assertEquals( expected, new HashMap<String,Object>( map ) );
+    }
+
+    public void testFrom() {
+        Map<String,Object> source = new HashMap<String,Object>();
+        source.put("a", 1 );
+        PersistentMap<String,Object> map = PersistentMap.from( source );
+        assertEquals( source, map );
+        assertSame( map, PersistentMap.from( map ) );
+    }
+}
@@ -0,0 +1,107 @@
+package com.innerfunction.util.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.Maps;
+import com.innerfunction.util.StringTemplate;
+
+public class StringTemplateTest extends AndroidTestCase {
+
+    private Map<String,Object> makeContext() {
+        Map<String,Object> platform = new HashMap<String,Object>();
+        platform.put("name", "and");
+        platform.put("display", "xhdpi");
+        Map<String,Object> context = new HashMap<String,Object>();
+        context.put("platform", platform );
+        context.put("mode", "LIVE");
+        return context;
+    }
+
+    public void testRender() {
+        Map<String,Object> context = makeContext();
+        assertEquals("and-xhdpi/LIVE", StringTemplate.render("{platform.name}-{platform.display}/{mode}", context ));
+        assertEquals("x--y", StringTemplate.render("x-{platform.missing}-y", context ));
+        assertEquals("{not a ref}", StringTemplate.render("{not a ref}", context ));
+    }
+
+    public void testPathKeys() {
+        Map<String,Object> globals = makeContext();
+        Map<String,Object> context = Maps.withPathKeys( globals, "platform");
+        assertEquals("xhdpi", context.get("platform.display") );
+        // The original map isn't modified.
+        assertFalse( globals.containsKey("platform.display") );
+        assertEquals("and-xhdpi", StringTemplate.render("{platform.name}-{platform.display}", context ));
+        // Precomputed keys take precedence over the nested values.
+        context.put("platform.name", "ios");
+        assertEquals("ios", StringTemplate.render("{platform.name}", context ));
+    }
+
+    public void testParsing() {
+        Map<String,Object> context = makeContext();
+        String[][] cases = new String[][]{
+            { "", "" },
+            { "plain", "plain" },
+            { "{mode}", "LIVE" },
+            { "a}{mode}", "a}LIVE" },
+            { "{not a ref} {mode}", "{not a ref} LIVE" },
+            { "{{mode}}", "{{mode}}" },
+            { "a}{bad ref}{mode}", "a}{bad ref}LIVE" },
+            { "{}{mode", "{}{mode" },
+            { "x{mode}y{mode}z", "xLIVEyLIVEz" },
+            { "{mode}\n{mode}", "LIVE\nLIVE" }
+        };
+        for( String[] c : cases ) {
+            assertEquals( c[0], c[1], StringTemplate.render( c[0], context ) );
+            assertEquals( c[0], c[0], new StringTemplate( c[0] ).toString() );
+        }
+    }
+
+    public void testLongTemplate() {
+        StringBuilder sb = new StringBuilder();
+        for( int i = 0; i < 20000; i++ ) {
+            sb.append("x}{mode}");
+        }
+        String result = StringTemplate.render( sb.toString(), makeContext() );
+        assertEquals( 20000 * "x}LIVE".length(), result.length() );
+    }
+
+    public void testRenderTo() throws IOException {
+        Map<String,Object> context = makeContext();
+        context.put("count", 42L );
+        StringTemplate template = new StringTemplate("{mode}:{count};");
+        StringBuilder sb = new StringBuilder();
+        for( int i = 0; i < 3; i++ ) {
+            template.renderTo( sb, context );
+        }
+        assertEquals("LIVE:42;LIVE:42;LIVE:42;", sb.toString() );
+        StringWriter writer = new StringWriter();
+        template.renderTo( writer, context );
+        assertEquals("LIVE:42;", writer.toString() );
+    }
+
+    public void testFastPaths() {
+        Map<String,Object> context = makeContext();
+        List<Object> items = Arrays.<Object>asList( 1L, 2L );
+        context.put("items", items );
+        // Templates without references render as the original string.
+        String text = new String("no {refs here}");
+        StringTemplate template = new StringTemplate( text );
+        assertFalse( template.hasRefs() );
+        assertSame( text, template.render( context ) );
+        // Single reference templates render as the referenced value.
+        template = new StringTemplate("{items}");
+        assertTrue( template.isSingleRef() );
+        assertSame( items, template.renderValue( context ) );
+        assertEquals("[1, 2]", template.render( context ) );
+        assertSame( context.get("mode"), new StringTemplate("{mode}").render( context ) );
+        assertNull( new StringTemplate("{missing}").renderValue( context ) );
+        assertEquals("LIVE!", new StringTemplate("{mode}!").renderValue( context ) );
+    }
+}
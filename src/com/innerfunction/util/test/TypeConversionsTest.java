@@ -0,0 +1,107 @@
+package com.innerfunction.util.test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import android.test.AndroidTestCase;
+
+import com.innerfunction.util.NumericList;
+import com.innerfunction.util.TypeConversions;
+
+public class TypeConversionsTest extends AndroidTestCase {
+
+    public void testStandardConversions() {
+        TypeConversions conversions = new TypeConversions( getContext() );
+        assertEquals("12", conversions.asString( 12L ));
+        assertEquals("abc", conversions.asString( new byte[]{ 'a', 'b', 'c' } ));
+        assertEquals( 12L, conversions.asNumber( 12L ));
+        assertNull( conversions.asNumber("12") );
+        assertEquals( Boolean.TRUE, conversions.asBoolean( 1 ));
+        assertEquals( Boolean.FALSE, conversions.asBoolean( Boolean.FALSE ));
+        assertNull( conversions.asBoolean("true") );
+        assertEquals( new Date( 1000 ), conversions.asDate( 1000L ));
+        assertEquals( URI.create("app:/x"), conversions.asURL("app:/x") );
+        assertEquals( Arrays.asList( 1L, 2L ), conversions.asJSONData("[1,2]") );
+        assertEquals("plain", conversions.asJSONData("plain") );
+        assertNull( conversions.asRepresentation("x", "unknown") );
+        assertNull( conversions.asRepresentation( null, "default") );
+    }
+
+    public void testRegisteredConverters() {
+        TypeConversions conversions = new TypeConversions( getContext() );
+        // A converter for a new representation.
+        conversions.registerConverter("length", CharSequence.class, new TypeConversions.Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return ((CharSequence)value).length();
+            }
+        });
+        assertEquals( 3, conversions.asRepresentation("abc", "length") );
+        assertEquals( 2, conversions.asRepresentation( new StringBuilder("ab"), "length") );
+        assertNull( conversions.asRepresentation( 12L, "length") );
+        // A converter for a subtype takes precedence over a standard converter.
+        conversions.registerConverter("string", List.class, new TypeConversions.Converter() {
+            @Override
+            public Object convert(Object value, TypeConversions conversions) {
+                return "list:"+((List<?>)value).size();
+            }
+        });
+        assertEquals("list:2", conversions.asString( new ArrayList<Object>( Arrays.asList( 1, 2 ) ) ));
+        assertEquals("12", conversions.asString( 12L ));
+        // Instances are per context.
+        assertSame( TypeConversions.instanceForContext( getContext() ), TypeConversions.instanceForContext( getContext() ));
+        assertNotSame( conversions, TypeConversions.instanceForContext( getContext() ));
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testJSONData() {
+        TypeConversions conversions = new TypeConversions( getContext() );
+        assertEquals( 12L, conversions.asJSONData(" \n12") );
+        assertEquals( Boolean.TRUE, conversions.asJSONData("true") );
+        assertEquals("-12", conversions.asJSONData("-12") );
+        assertEquals("  ", conversions.asJSONData("  ") );
+        // The parsed data of short strings is modifiable.
+        Map<String,Object> data = (Map<String,Object>)conversions.asJSONData("{\"a\":{\"b\":[1,{\"c\":2}]}}");
+        data.put("x", 1 );
+        ((List<Object>)((Map<String,Object>)data.get("a")).get("b")).add( 3 );
+        // The parsed data of long strings is shared, so is read-only.
+        StringBuilder pad = new StringBuilder();
+        for( int i = 0; i < 1024; i++ ) {
+            pad.append(' ');
+        }
+        data = (Map<String,Object>)conversions.asJSONData("{\"a\":{\"b\":[1,{\"c\":2}]}}"+pad );
+        Map<String,Object> a = (Map<String,Object>)data.get("a");
+        List<Object> b = (List<Object>)a.get("b");
+        assertTrue( b instanceof NumericList );
+        try {
+            data.put("x", 1 );
+            fail("Expected UnsupportedOperationException");
+        }
+        catch(UnsupportedOperationException e) {}
+        try {
+            b.add( 3 );
+            fail("Expected UnsupportedOperationException");
+        }
+        catch(UnsupportedOperationException e) {}
+        try {
+            ((Map<String,Object>)b.get( 1 )).remove("c");
+            fail("Expected UnsupportedOperationException");
+        }
+        catch(UnsupportedOperationException e) {}
+        // The parsed data of long strings is cached.
+        StringBuilder sb = new StringBuilder("[");
+        for( int i = 0; i < 1000; i++ ) {
+            sb.append( i ).append(',');
+        }
+        sb.append("1000]");
+        String json = sb.toString();
+        List<Object> list = (List<Object>)conversions.asJSONData( json );
+        assertEquals( 1001, list.size() );
+        assertSame( list, conversions.asJSONData( json ) );
+        assertSame( list, conversions.asJSONData( new String( json ) ) );
+    }
+}